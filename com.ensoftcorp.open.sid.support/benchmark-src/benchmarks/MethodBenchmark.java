@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tca.instrumentation.TCA_Counter;
+
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class MethodBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Workload {
+		
+		// the workload sizes to benchmark (override with -p size=...), 
+		// JMH runs each size in its own forks
+		@Param({"1", "2", "4", "8", "16", "32", "64", "128"})
+		public int size;
+		
+		public Object[] parameters;
+		
+		@Setup(Level.Trial)
+		public void setup() {
+			TCA_Counter.getInstance().setSize(size);
+			// the parameters are reused by every invocation, generate them in a
+			// Level.Invocation setup instead if the method modifies its parameters
+			parameters = getWorkload(size);
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			// the loop iteration counts of the instrumented bytecode next to the JMH
+			// results, the counts are totals over all invocations of the fork
+			TCA_Counter.getInstance().saveKeyMeasurements(new File("counter-measurements-" + size + ".csv"));
+		}
+	}
+	
+	// the result of the method is consumed by the blackhole, so the JIT
+	// can not eliminate the call as dead code
+	@Benchmark
+	public void benchmark(Workload workload, Blackhole blackhole) {
+		Object[] parameters = workload.parameters;
+		TCA_TARGET_METHOD_CALLSITE
+	}
+	
+	private static Object[] getWorkload(int size){
+		return null; // TODO: implement: return workload parameters for given size
+	}
+	
+}
\ No newline at end of file
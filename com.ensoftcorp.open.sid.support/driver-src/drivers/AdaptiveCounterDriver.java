@@ -0,0 +1,46 @@
+package drivers;
+
+import java.io.File;
+
+import tca.instrumentation.MeasurementTable;
+import tca.instrumentation.TCA_Counter;
+import tca.instrumentation.WorkloadScheduler;
+
+public class AdaptiveCounterDriver {
+
+	// the range of workload sizes to choose from, sizes grow geometrically 
+	// from the minimum and are refined where the profile changes slope
+	private static final int MINIMUM_SIZE = 1;
+	private static final int MAXIMUM_SIZE = 1 << 20;
+	
+	// the wall clock budget of the sweep, sizes that are predicted
+	// not to fit in the rest of the budget are not run
+	private static final long BUDGET = 10 * 60 * 1000; // milliseconds
+	
+	public static void main(String[] args) throws Exception {
+		WorkloadScheduler scheduler = new WorkloadScheduler(MINIMUM_SIZE, MAXIMUM_SIZE, BUDGET);
+		while(scheduler.hasNext()){
+			int size = scheduler.next();
+			TCA_Counter.getInstance().setSize(size);
+			Object[] parameters = getWorkload(size);
+			TCA_TARGET_METHOD_CALLSITE
+			scheduler.record(size, getCount(size));
+			System.out.println("Workload size " + size + ", fitted exponent " + scheduler.getExponent());
+		}
+		TCA_Counter.getInstance().saveKeyMeasurements(new File("counter-measurements.csv"));
+		// only plot the sizes the scheduler ran, not every size up to the largest
+		tca.TCA.plotCounterRegression("Counter Workload Profile", scheduler.getMeasurements().keySet());
+	}
+	
+	// the total loop iterations of the given workload size
+	private static long getCount(int size){
+		MeasurementTable table = TCA_Counter.getInstance().getMeasurements();
+		int sizeIndex = table.getSizeIndex(size);
+		return sizeIndex == -1 ? 0 : table.getColumnSum(sizeIndex);
+	}
+	
+	private static Object[] getWorkload(int size){
+		return null; // TODO: implement: return workload parameters for given size
+	}
+	
+}
\ No newline at end of file
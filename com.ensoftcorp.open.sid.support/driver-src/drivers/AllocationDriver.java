@@ -0,0 +1,28 @@
+package drivers;
+
+import java.io.File;
+
+import tca.instrumentation.TCA_Allocation;
+
+public class AllocationDriver {
+
+	// change total work units to increase or decrease 
+	// the number of collected data points
+	private static final int TOTAL_WORK_TASKS = 100;
+	
+	public static void main(String[] args) throws Exception {
+		TCA_Allocation.getInstance().enable(true);
+		for(int i=1; i<=TOTAL_WORK_TASKS; i++){
+			TCA_Allocation.getInstance().setSize(i);
+			Object[] parameters = getWorkload(i);
+			TCA_TARGET_METHOD_CALLSITE
+		}
+		TCA_Allocation.getInstance().saveKeyMeasurements(new File("allocation-measurements.csv"));
+		tca.TCA.plotAllocationRegression("Allocation Workload Profile", TOTAL_WORK_TASKS);
+	}
+	
+	private static Object[] getWorkload(int size){
+		return null; // TODO: implement: return workload parameters for given size
+	}
+	
+}
@@ -1,6 +1,18 @@
 package drivers;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tca.instrumentation.ProbeCalibration;
+import tca.instrumentation.TCA_Context;
 import tca.instrumentation.TCA_Counter;
+import tca.instrumentation.TCA_TripCount;
+import tca.instrumentation.WorkloadWatchdog;
 
 public class CounterDriver {
 
@@ -8,17 +20,83 @@ public class CounterDriver {
 	// the number of collected data points
 	private static final int TOTAL_WORK_TASKS = 100;
 	
+	// workload sizes run in parallel on this many threads, each probe hit
+	// is attributed to the size of the workload running on its thread
+	private static final int WORKER_THREADS = 1;
+	
+	// a workload size that runs longer than this is stopped at its next loop 
+	// iteration, recorded as censored and the larger sizes are skipped
+	private static final long SIZE_TIMEOUT = 1000*60; // milliseconds
+	
 	public static void main(String[] args) throws Exception {
+		// trip counts are only recorded while the probe is enabled
+		TCA_TripCount.getInstance().enable(true);
+		
+		// measure the probe overhead on this machine before the workloads run
+		ProbeCalibration calibration = ProbeCalibration.calibrate();
+		calibration.save(new File("probe-calibration.csv"));
+		System.out.println(calibration);
+		
+		final WorkloadWatchdog watchdog = new WorkloadWatchdog(SIZE_TIMEOUT);
+		ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+		ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
 		for(int i=1; i<=TOTAL_WORK_TASKS; i++){
-			TCA_Counter.getInstance().setSize(i);
-			Object[] parameters = getWorkload(i);
-			TCA_TARGET_METHOD_CALLSITE
+			final int size = i;
+			results.add(workers.submit(new Callable<Void>(){
+				@Override
+				public Void call() throws Exception {
+					watchdog.measure(size, new Callable<Void>(){
+						@Override
+						public Void call() throws Exception {
+							final Object[] parameters = getWorkload(size);
+							TCA_TARGET_METHOD_CALLSITE
+							return null;
+						}
+					});
+					return null;
+				}
+			}));
+		}
+		try {
+			for(Future<Void> result : results){
+				result.get();
+			}
+		} finally {
+			workers.shutdown();
+			watchdog.close();
+		}
+		
+		// the measurements of the censored sizes are incomplete, they are listed in a 
+		// separate file so the saved measurements of those sizes can be told apart
+		TCA_Counter.getInstance().saveKeyMeasurements(new File("counter-measurements.csv"));
+		watchdog.saveCensoredSizes(new File("censored-sizes.csv"));
+		
+		// the regressions only use the sizes that completed
+		TreeSet<Integer> completedSizes = watchdog.getCompletedSizes();
+		String cutoffNote = "";
+		if(watchdog.getCutoff() != -1){
+			cutoffNote = " (cut off at size " + watchdog.getCutoff() + ")";
+			System.out.println("Workload sizes " + watchdog.getCensoredSizes() + " were stopped after the timeout of " 
+					+ SIZE_TIMEOUT + " ms, the regressions use the " + completedSizes.size() + " completed sizes");
+		}
+		tca.TCA.plotCounterRegression("Counter Workload Profile" + cutoffNote, completedSizes);
+		
+		// trip counts per loop execution tell nested linear loops from a single quadratic loop
+		TCA_TripCount.getInstance().saveTripCounts(new File("trip-counts.csv"));
+		TCA_TripCount.getInstance().saveTripCountHistograms(new File("trip-count-histograms.csv"));
+		tca.TCA.plotTripCountRegression("Trip Count Workload Profile" + cutoffNote, completedSizes);
+		
+		// with -Dtca.context=true the loops are also measured in each of their calling contexts,
+		// folded back onto the loop call graph so the callers that make a shared loop expensive stand out
+		if(TCA_Context.getInstance().isEnabled()){
+			TCA_Context.getInstance().saveContextTree(new File("calling-context-tree.csv"));
+			TCA_Context.getInstance().saveContextMeasurements(new File("calling-context-measurements.csv"));
+			TCA_Context.getInstance().saveFoldedMeasurements(new File("calling-context-lcg.csv"));
 		}
-		tca.TCA.plotCounterRegression("Counter Workload Profile", TOTAL_WORK_TASKS);
 	}
 	
 	private static Object[] getWorkload(int size){
 		return null; // TODO: implement: return workload parameters for given size
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package drivers;
+
+import java.io.File;
+
+import tca.instrumentation.TimingHarness;
+
+public class HarnessTimerDriver {
+
+	// change total work units to increase or decrease 
+	// the number of collected data points
+	private static final int TOTAL_WORK_TASKS = 100;
+	
+	// each size is run WARMUP_ITERATIONS times before it is timed MEASUREMENT_ITERATIONS
+	// times, in each of FORKS fresh JVMs (0 runs the iterations in this JVM)
+	private static final int WARMUP_ITERATIONS = TimingHarness.DEFAULT_WARMUP_ITERATIONS;
+	private static final int MEASUREMENT_ITERATIONS = TimingHarness.DEFAULT_MEASUREMENT_ITERATIONS;
+	private static final int FORKS = TimingHarness.DEFAULT_FORKS;
+	
+	public static void main(String[] args) throws Exception {
+		TimingHarness harness = new TimingHarness(HarnessTimerDriver.class, new File("harness"));
+		harness.setWarmupIterations(WARMUP_ITERATIONS);
+		harness.setMeasurementIterations(MEASUREMENT_ITERATIONS);
+		harness.setForks(FORKS);
+		harness.run(TOTAL_WORK_TASKS, new TimingHarness.Workload(){
+			@Override
+			public void run(int size) throws Exception {
+				Object[] parameters = getWorkload(size);
+				TCA_TARGET_METHOD_CALLSITE
+			}
+		});
+		if(TimingHarness.isFork()){
+			return;
+		}
+		harness.saveSummary(new File("timer-harness.csv"));
+		tca.TCA.plotHarnessTimerRegression("Steady State Timer Workload Profile", harness);
+	}
+	
+	private static Object[] getWorkload(int size){
+		return null; // TODO: implement: return workload parameters for given size
+	}
+	
+}
\ No newline at end of file
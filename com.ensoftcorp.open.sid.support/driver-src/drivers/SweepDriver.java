@@ -0,0 +1,48 @@
+package drivers;
+
+import java.io.File;
+
+import tca.instrumentation.ForkedSweep;
+import tca.instrumentation.TCA_Counter;
+import tca.instrumentation.TCA_Timer;
+
+public class SweepDriver {
+
+	// change total work units to increase or decrease 
+	// the number of collected data points
+	private static final int TOTAL_WORK_TASKS = 100;
+	
+	// child JVMs run at the same time, each workload size runs in its own JVM
+	// (concurrent timings share the machine, use fewer workers for the timer profile)
+	private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+	
+	public static void main(String[] args) throws Exception {
+		if(ForkedSweep.isWorker()){
+			int size = ForkedSweep.getWorkerSize();
+			TCA_Counter.getInstance().setSize(size);
+			TCA_Timer.getInstance().setSize(size);
+			Object[] parameters = getWorkload(size);
+			TCA_TARGET_METHOD_CALLSITE
+			ForkedSweep.saveWorkerMeasurements(TCA_Counter.getInstance(), "counter");
+			ForkedSweep.saveWorkerMeasurements(TCA_Timer.getInstance(), "timer");
+			return;
+		}
+		
+		ForkedSweep sweep = new ForkedSweep(SweepDriver.class, new File("sweep"));
+		sweep.setWorkers(WORKERS);
+		sweep.run(1, TOTAL_WORK_TASKS);
+		
+		// merge the measurements of the workers as if the sweep had run in this JVM
+		sweep.load(TCA_Counter.getInstance(), "counter");
+		sweep.load(TCA_Timer.getInstance(), "timer");
+		TCA_Counter.getInstance().saveKeyMeasurements(new File("counter-measurements.csv"));
+		TCA_Timer.getInstance().saveKeyMeasurements(new File("timer-measurements.csv"));
+		tca.TCA.plotCounterRegression("Counter Workload Profile", TOTAL_WORK_TASKS);
+		tca.TCA.plotTimerRegression("Timer Workload Profile", TOTAL_WORK_TASKS);
+	}
+	
+	private static Object[] getWorkload(int size){
+		return null; // TODO: implement: return workload parameters for given size
+	}
+	
+}
\ No newline at end of file
@@ -3,34 +3,123 @@ package drivers;
 import java.io.File;
 import java.io.IOException;
 
+import tca.instrumentation.Checkpointer;
+import tca.instrumentation.LiveMetrics;
+import tca.instrumentation.MappedMeasurements;
 import tca.instrumentation.TCA_Counter;
+import tca.instrumentation.WorkloadStop;
+import tca.instrumentation.WorkloadStoppedError;
 
 public class TimedRunCounterDriver {
 
 	public static final long TIMER = 1000*30; // run for 30 seconds
+	public static final long CHECKPOINT_INTERVAL = 1000*10; // checkpoint every 10 seconds
+	public static final long STOP_TIMEOUT = 1000*5; // wait up to 5 seconds for the workload to reach a probe and stop
+	
+	private static MappedMeasurements mappedMeasurements = null;
+	private static LiveMetrics liveMetrics = null;
+	private static Checkpointer checkpointer = null;
+	private static boolean finished = false;
 	
-	@SuppressWarnings("deprecation")
 	public static void main(String[] args) {
 		
-		final long start = System.currentTimeMillis();
+		// persist measurements to a memory mapped file as the program runs, so they survive
+		// a hang or crash (recover with: java tca.instrumentation.MappedMeasurementsReader <file>)
+		File mappedFile = new File("counter-measurements.tca");
+		try {
+			mappedMeasurements = MappedMeasurements.open(mappedFile, TCA_Counter.getInstance());
+			System.out.println("Persisting measurements to " + mappedFile.getAbsolutePath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		// checkpoint the measurements to append-only segments as the program runs
+		// (merge with: java tca.instrumentation.Checkpointer <directory> <output file>)
+		File checkpointDirectory = new File("counter-checkpoints");
+		try {
+			checkpointer = Checkpointer.start(TCA_Counter.getInstance(), checkpointDirectory, "COUNT", CHECKPOINT_INTERVAL);
+			System.out.println("Checkpointing measurements to " + checkpointDirectory.getAbsolutePath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		// optionally serve live counters and timers while the program runs (-Dtca.metrics.port=<port>), 
+		// as JSON from http://localhost:<port>/metrics and as the tca.instrumentation:type=LiveMetrics MBean
+		String metricsPort = System.getProperty(LiveMetrics.PORT_PROPERTY);
+		if(metricsPort != null){
+			try {
+				liveMetrics = LiveMetrics.start(Integer.parseInt(metricsPort));
+				System.out.println("Serving live metrics at http://localhost:" + liveMetrics.getPort() + "/metrics");
+			} catch (IOException | NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		// save the measurements if the run is terminated early (SIGTERM, Ctrl-C or System.exit)
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			@Override
+			public void run() {
+				WorkloadStop.request();
+				finish();
+			}
+		}, "TCA Shutdown"));
 		
 		Thread t = new Thread(new Runnable(){
 			@Override
 			public void run() {
-				// TODO: enable a main method by uncommenting the correct program entry point
+				try {
+					// TODO: enable a main method by uncommenting the correct program entry point
 TCA_MAIN_METHODS
+				} catch (WorkloadStoppedError e){
+					// stopped by the driver
+				}
 			}
 		});
-		
+		t.setDaemon(true); // a workload that never reaches a probe must not keep the JVM alive
 		t.start();
 		
-		// doing this really grossly because shutdown hooks don't work in signal interrupts
-		while((System.currentTimeMillis() - start) < TIMER){
+		try {
+			t.join(TIMER);
+			if(t.isAlive()){
+				// stop the workload at its next probe
+				WorkloadStop.request();
+				t.join(STOP_TIMEOUT);
+				if(t.isAlive()){
+					System.err.println("The workload did not reach a probe within " + STOP_TIMEOUT + "ms of the stop request, saving the measurements anyway");
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+		finish();
+	}
+	
+	private static synchronized void finish(){
+		if(finished){
+			return;
+		}
+		finished = true;
+		
+		if(checkpointer != null){
 			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {}
+				checkpointer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		if(liveMetrics != null){
+			liveMetrics.close();
+		}
+		
+		if(mappedMeasurements != null){
+			try {
+				mappedMeasurements.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
-		t.stop(); // I feel dirty...:(
 		
 		File outputFile = new File("counter-measurements.csv");
 		System.out.println("Saving measurements to " + outputFile.getAbsolutePath());
@@ -39,7 +128,6 @@ TCA_MAIN_METHODS
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
 	}
 
 }
\ No newline at end of file
@@ -1,5 +1,9 @@
 package drivers;
 
+import java.io.File;
+
+import tca.instrumentation.ProbeCalibration;
+import tca.instrumentation.TCA_Counter;
 import tca.instrumentation.TCA_Timer;
 
 public class TimerDriver {
@@ -9,12 +13,33 @@ public class TimerDriver {
 	private static final int TOTAL_WORK_TASKS = 100;
 	
 	public static void main(String[] args) throws Exception {
+		// attribute GC pauses to workload sizes, CPU time can also be recorded next to 
+		// wall time with -Dtca.timer.cputime=true, but reading the thread CPU time makes 
+		// every timer probe an order of magnitude slower
+		TCA_Timer.getInstance().enableGcPauseTracking(true);
+		
+		// record the self time of each loop so nested loops are not counted twice
+		TCA_Timer.getInstance().enableExclusiveTime(true);
+		
+		// measure the probe overhead on this machine with the timer configured as above
+		ProbeCalibration calibration = ProbeCalibration.calibrate();
+		calibration.save(new File("probe-calibration.csv"));
+		System.out.println(calibration);
+		
 		for(int i=1; i<=TOTAL_WORK_TASKS; i++){
 			TCA_Timer.getInstance().setSize(i);
+			// the header counts estimate the timed intervals for the overhead correction
+			TCA_Counter.getInstance().setSize(i);
 			Object[] parameters = getWorkload(i);
 			TCA_TARGET_METHOD_CALLSITE
 		}
+		tca.TCA.saveTimerOverheadReport(new File("timer-overhead.csv"));
+		tca.TCA.saveTimerBreakdown(new File("timer-breakdown.csv"));
+		TCA_Timer.getInstance().saveExclusiveTimes(new File("timer-exclusive.csv"));
 		tca.TCA.plotTimerRegression("Timer Workload Profile", TOTAL_WORK_TASKS);
+		tca.TCA.plotCorrectedTimerRegression("Timer Workload Profile", TOTAL_WORK_TASKS);
+		tca.TCA.plotTimerBreakdownRegression("Timer Workload Profile", TOTAL_WORK_TASKS);
+		tca.TCA.plotExclusiveTimerRegression("Exclusive Timer Workload Profile", TOTAL_WORK_TASKS);
 	}
 	
 	private static Object[] getWorkload(int size){
@@ -7,10 +7,16 @@ public class Measurements {
 	public static class Measurement {
 		public int size;
 		public long value;
+		public long error; // half width of the value's confidence interval, 0 if exact
 
 		public Measurement(int size, long value) {
+			this(size, value, 0);
+		}
+		
+		public Measurement(int size, long value, long error) {
 			this.size = size;
 			this.value = value;
+			this.error = error;
 		}
 
 		public double getSize() {
@@ -28,13 +34,33 @@ public class Measurements {
 		public double getLogValue() {
 			return Math.log(value) / Math.log(2.0); // binary log
 		}
+		
+		public double getError() {
+			return error;
+		}
+		
+		public boolean hasError() {
+			return error > 0;
+		}
+		
+		public double getLogLowerBound() {
+			return Math.log(Math.max(value - error, 1)) / Math.log(2.0); // binary log
+		}
+		
+		public double getLogUpperBound() {
+			return Math.log(value + error) / Math.log(2.0); // binary log
+		}
 	}
 	
 	private ArrayList<Measurement> measurements = new ArrayList<Measurement>();
 	
 	public void add(int size, long value){
+		add(size, value, 0);
+	}
+	
+	public void add(int size, long value, long error){
 		if(value > 0){
-			measurements.add(new Measurement(size, value));
+			measurements.add(new Measurement(size, value, error));
 		}
 	}
 	
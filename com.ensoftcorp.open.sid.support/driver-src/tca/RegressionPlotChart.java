@@ -87,6 +87,15 @@ public class RegressionPlotChart extends Chart {
 		annotation.setToolTipText("y=" + decimalFormat.format(slope) + "*x + " + decimalFormat.format(intercept));
 		plot.addAnnotation(annotation);
 		
+		// add the error bars of estimated measurements
+		for(Measurement measurement : measurements.getMeasurements()){
+			if(measurement.hasError()){
+				XYLineAnnotation errorBar = new XYLineAnnotation(measurement.getLogSize(), measurement.getLogLowerBound(), measurement.getLogSize(), measurement.getLogUpperBound());
+				errorBar.setToolTipText(measurement.getValue() + " +/- " + measurement.getError());
+				plot.addAnnotation(errorBar);
+			}
+		}
+		
 		return chart;
 	}
 	
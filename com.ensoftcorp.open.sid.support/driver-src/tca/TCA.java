@@ -1,23 +1,106 @@
 package tca;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.TreeMap;
 
+import tca.instrumentation.LatencyHistogram;
+import tca.instrumentation.MeasurementTable;
+import tca.instrumentation.ProbeCalibration;
+import tca.instrumentation.ProbeManifest;
+import tca.instrumentation.TCA_Allocation;
 import tca.instrumentation.TCA_Counter;
 import tca.instrumentation.TCA_Timer;
+import tca.instrumentation.TCA_TripCount;
+import tca.instrumentation.TimingHarness;
+import tca.instrumentation.TraceReader;
 
 public class TCA {
 
 	public static void plotCounterRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		plotCounterRegression(title, getSizes(TOTAL_WORK_TASKS));
+	}
+	
+	/**
+	 * Plots the regression of the loop iteration counts of the given workload sizes
+	 * (ex: the sizes that completed before a timeout)
+	 * @param title
+	 * @param sizes
+	 */
+	public static void plotCounterRegression(final String title, final Collection<Integer> sizes) throws IOException, InterruptedException {
+		Measurements measurements = new Measurements();
+		MeasurementTable table = TCA_Counter.getInstance().getMeasurements();
+		for (Integer size : sizes) {
+			int sizeIndex = table.getSizeIndex(size);
+			if (sizeIndex != -1) {
+				measurements.add(size, table.getColumnSum(sizeIndex));
+			}
+		}
+		
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title, measurements);
+		scatterPlot.show();
+	}
+	
+	/**
+	 * Plots the regression of the bytes allocated by the instrumented loops
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 */
+	public static void plotAllocationRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		if (!TCA_Allocation.getInstance().isSupported()) {
+			System.err.println("Warning: this JVM does not report thread allocated bytes, there are no allocation measurements");
+		}
 		Measurements measurements = new Measurements();
+		MeasurementTable table = TCA_Allocation.getInstance().getMeasurements();
 		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
-			@SuppressWarnings("unchecked")
-			HashMap<String, Long> counters = TCA_Counter.getInstance().getMeasurementForSize(i);
-			long sum = 0;
-			for (Long l : counters.values()) {
-				sum += l;
+			int sizeIndex = table.getSizeIndex(i);
+			if (sizeIndex != -1) {
+				measurements.add(i, table.getColumnSum(sizeIndex));
+			}
+		}
+		
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title, measurements);
+		scatterPlot.show();
+	}
+	
+	/**
+	 * Plots the regression of the largest mean trip count (header visits per execution
+	 * of a loop) of the instrumented loops, a loop whose trips per execution grow with 
+	 * the square of the workload size is quadratic on its own, while nested linear loops
+	 * each grow linearly and only their total iterations grow quadratically
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 */
+	public static void plotTripCountRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		plotTripCountRegression(title, getSizes(TOTAL_WORK_TASKS));
+	}
+	
+	/**
+	 * Plots the regression of the largest mean trip count of the given workload sizes
+	 * @param title
+	 * @param sizes
+	 */
+	public static void plotTripCountRegression(final String title, final Collection<Integer> sizes) throws IOException, InterruptedException {
+		Measurements measurements = new Measurements();
+		MeasurementTable executions = TCA_TripCount.getInstance().getExecutions();
+		MeasurementTable trips = TCA_TripCount.getInstance().getTrips();
+		for (Integer size : sizes) {
+			int executionsSizeIndex = executions.getSizeIndex(size);
+			int tripsSizeIndex = trips.getSizeIndex(size);
+			if (executionsSizeIndex != -1 && tripsSizeIndex != -1) {
+				long maxMeanTrips = 0;
+				for (int id = 0; id < executions.getKeyCount(); id++) {
+					long count = executions.get(id, executionsSizeIndex);
+					if (count != 0) {
+						maxMeanTrips = Math.max(maxMeanTrips, trips.get(id, tripsSizeIndex) / count);
+					}
+				}
+				measurements.add(size, maxMeanTrips);
 			}
-			measurements.add(i, sum);
 		}
 		
 		RegressionPlotChart scatterPlot = new RegressionPlotChart(title, measurements);
@@ -26,18 +109,322 @@ public class TCA {
 	
 	public static void plotTimerRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
 		Measurements measurements = new Measurements();
+		MeasurementTable table = TCA_Timer.getInstance().getMeasurements();
+		// confidence bounds of the totals estimated by sampling (empty if every iteration was timed)
+		MeasurementTable bounds = TCA_Timer.getInstance().getConfidenceBounds();
 		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
-			@SuppressWarnings("unchecked")
-			HashMap<String, Long> counters = TCA_Timer.getInstance().getMeasurementForSize(i);
-			long sum = 0;
-			for (Long l : counters.values()) {
-				sum += l;
+			int sizeIndex = table.getSizeIndex(i);
+			if (sizeIndex != -1) {
+				measurements.add(i, table.getColumnSum(sizeIndex), getCombinedBound(bounds, i));
 			}
-			measurements.add(i, sum);
 		}
 		
 		RegressionPlotChart scatterPlot = new RegressionPlotChart(title, measurements);
 		scatterPlot.show();
 	}
+	
+	/**
+	 * Plots the regression of the exclusive (self) time of the hot loop, the key with
+	 * the largest total exclusive time over all workload sizes, requires exclusive time
+	 * to be enabled on the timer before the workloads are run
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 */
+	public static void plotExclusiveTimerRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		MeasurementTable table = TCA_Timer.getInstance().getExclusiveMeasurements();
+		int hotId = -1;
+		long hotTime = 0;
+		for (int id = 0; id < table.getKeyCount(); id++) {
+			long time = 0;
+			for (int sizeIndex = 0; sizeIndex < table.getSizeCount(); sizeIndex++) {
+				time += table.get(id, sizeIndex);
+			}
+			if (hotId == -1 || time > hotTime) {
+				hotId = id;
+				hotTime = time;
+			}
+		}
+		if (hotId == -1) {
+			System.err.println("Warning: there are no exclusive time measurements, enable exclusive time on the timer");
+			return;
+		}
+		
+		Measurements measurements = new Measurements();
+		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+			int sizeIndex = table.getSizeIndex(i);
+			if (sizeIndex != -1) {
+				measurements.add(i, table.get(hotId, sizeIndex));
+			}
+		}
+		
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title + " (" + ProbeManifest.getInstance().getKey(hotId) + ")", measurements);
+		scatterPlot.show();
+	}
+	
+	/**
+	 * Plots the regression of the steady state median time of each workload size measured
+	 * by the harness, with the confidence interval of the median as the error bound
+	 * @param title
+	 * @param harness
+	 */
+	public static void plotHarnessTimerRegression(final String title, final TimingHarness harness) throws IOException, InterruptedException {
+		Measurements measurements = new Measurements();
+		for (Integer size : harness.getSizes()) {
+			measurements.add(size, harness.getMedian(size), harness.getError(size));
+		}
+		
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title, measurements);
+		scatterPlot.show();
+	}
+	
+	// the bounds of independent key estimates combine as the root of the sum of squares
+	private static long getCombinedBound(MeasurementTable bounds, int size) {
+		int sizeIndex = bounds.getSizeIndex(size);
+		if (sizeIndex == -1) {
+			return 0;
+		}
+		double sumOfSquares = 0;
+		for (long bound : bounds.getColumn(sizeIndex)) {
+			sumOfSquares += (double) bound * bound;
+		}
+		return Math.round(Math.sqrt(sumOfSquares));
+	}
+	
+	// the workload sizes 1 to TOTAL_WORK_TASKS
+	private static Collection<Integer> getSizes(int TOTAL_WORK_TASKS) {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+			sizes.add(i);
+		}
+		return sizes;
+	}
+	
+	/**
+	 * Plots the regressions of the CPU time (if CPU time was enabled on the timer) and
+	 * of the loop time excluding garbage collection pauses, which requires exclusive time
+	 * and GC pause tracking to be enabled on the timer before the workloads are run
+	 * 
+	 * The loop time is the sum of the exclusive times of the loops, so nested loops are
+	 * counted once. GC pauses are attributed to the whole workload size, including pauses
+	 * outside of the timed loops, so the loop time excluding GC is a lower bound.
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 */
+	public static void plotTimerBreakdownRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		TCA_Timer timer = TCA_Timer.getInstance();
+		if (timer.cpuTimeEnabled()) {
+			Measurements cpuMeasurements = new Measurements();
+			MeasurementTable cpuTable = timer.getCpuMeasurements();
+			for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+				int cpuSizeIndex = cpuTable.getSizeIndex(i);
+				if (cpuSizeIndex != -1) {
+					cpuMeasurements.add(i, cpuTable.getColumnSum(cpuSizeIndex));
+				}
+			}
+			new RegressionPlotChart(title + " (CPU time)", cpuMeasurements).show();
+		}
+		if (!timer.exclusiveTimeEnabled()) {
+			System.err.println("Warning: the loop time excluding GC requires exclusive time, enable exclusive time on the timer");
+			return;
+		}
+		Measurements nonGcMeasurements = new Measurements();
+		MeasurementTable loopTable = timer.getExclusiveMeasurements();
+		HashMap<Integer, Long> gcPauseTimes = timer.getGcPauseTimes();
+		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+			int loopSizeIndex = loopTable.getSizeIndex(i);
+			if (loopSizeIndex != -1) {
+				nonGcMeasurements.add(i, getTimeExcludingGc(loopTable.getColumnSum(loopSizeIndex), gcPauseTimes.get(i)));
+			}
+		}
+		new RegressionPlotChart(title + " (loop time excluding GC, lower bound)", nonGcMeasurements).show();
+	}
+	
+	/**
+	 * Writes the wall time, CPU time, loop time and garbage collection pause time attributed 
+	 * to each workload size as a CSV file in the format 
+	 * WORKLOAD_SIZE,WALL_TIME,CPU_TIME,LOOP_TIME,GC_PAUSE_TIME,GC_PAUSES,LOOP_TIME_EXCLUDING_GC_LOWER_BOUND
+	 * 
+	 * The wall and CPU times are the sums of the inclusive times of the loops, so nested
+	 * loops are counted once for each enclosing loop. The loop time is the sum of the 
+	 * exclusive times (0 unless exclusive time was enabled), the time spent in the timed
+	 * loops counted once. GC pauses are attributed to the whole workload size, so the pause
+	 * time is an upper bound on the GC time inside the timed loops and the loop time 
+	 * excluding the pauses is a lower bound.
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public static void saveTimerBreakdown(File outputFile) throws IOException {
+		MeasurementTable wallTable = TCA_Timer.getInstance().getMeasurements();
+		MeasurementTable cpuTable = TCA_Timer.getInstance().getCpuMeasurements();
+		MeasurementTable loopTable = TCA_Timer.getInstance().getExclusiveMeasurements();
+		HashMap<Integer, Long> gcPauseTimes = TCA_Timer.getInstance().getGcPauseTimes();
+		HashMap<Integer, Long> gcPauseCounts = TCA_Timer.getInstance().getGcPauseCounts();
+		FileWriter fw = new FileWriter(outputFile);
+		fw.write("WORKLOAD_SIZE,WALL_TIME,CPU_TIME,LOOP_TIME,GC_PAUSE_TIME,GC_PAUSES,LOOP_TIME_EXCLUDING_GC_LOWER_BOUND\n");
+		for (int sizeIndex = 0; sizeIndex < wallTable.getSizeCount(); sizeIndex++) {
+			int size = wallTable.getSize(sizeIndex);
+			long wallTime = wallTable.getColumnSum(sizeIndex);
+			int cpuSizeIndex = cpuTable.getSizeIndex(size);
+			long cpuTime = cpuSizeIndex == -1 ? 0 : cpuTable.getColumnSum(cpuSizeIndex);
+			int loopSizeIndex = loopTable.getSizeIndex(size);
+			long loopTime = loopSizeIndex == -1 ? 0 : loopTable.getColumnSum(loopSizeIndex);
+			Long gcPauseTime = gcPauseTimes.get(size);
+			Long gcPauses = gcPauseCounts.get(size);
+			fw.write(size + "," + wallTime + "," + cpuTime + "," + loopTime
+					+ "," + (gcPauseTime == null ? 0 : gcPauseTime) 
+					+ "," + (gcPauses == null ? 0 : gcPauses) 
+					+ "," + getTimeExcludingGc(loopTime, gcPauseTime) + "\n");
+		}
+		fw.close();
+	}
+	
+	private static long getTimeExcludingGc(long time, Long gcPauseTime) {
+		return gcPauseTime == null ? time : Math.max(0, time - gcPauseTime);
+	}
+	
+	/**
+	 * Plots the regression of the timer measurements with the probe overhead subtracted,
+	 * requires the probes to be calibrated and the counter to be sized along with the timer
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 */
+	public static void plotCorrectedTimerRegression(final String title, final int TOTAL_WORK_TASKS) throws IOException, InterruptedException {
+		Measurements measurements = new Measurements();
+		MeasurementTable timerTable = TCA_Timer.getInstance().getMeasurements();
+		MeasurementTable counterTable = TCA_Counter.getInstance().getMeasurements();
+		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+			int sizeIndex = timerTable.getSizeIndex(i);
+			if (sizeIndex != -1) {
+				long corrected = 0;
+				long[] column = timerTable.getColumn(sizeIndex);
+				for (int id = 0; id < column.length; id++) {
+					corrected += getCorrectedTime(column[id], counterTable, id, i);
+				}
+				measurements.add(i, corrected);
+			}
+		}
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title + " (overhead corrected)", measurements);
+		scatterPlot.show();
+	}
+	
+	/**
+	 * Writes the raw and overhead corrected timer measurements of each loop key and workload size
+	 * as a CSV file in the format KEY,WORKLOAD_SIZE,RAW_TIME,CORRECTED_TIME,OVERHEAD_FRACTION
+	 * 
+	 * The timed intervals of a loop are estimated from its header counts, so the
+	 * counter must be sized along with the timer during the run.
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public static void saveTimerOverheadReport(File outputFile) throws IOException {
+		MeasurementTable timerTable = TCA_Timer.getInstance().getMeasurements();
+		MeasurementTable counterTable = TCA_Counter.getInstance().getMeasurements();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		FileWriter fw = new FileWriter(outputFile);
+		fw.write("KEY,WORKLOAD_SIZE,RAW_TIME,CORRECTED_TIME,OVERHEAD_FRACTION\n");
+		for (int sizeIndex = 0; sizeIndex < timerTable.getSizeCount(); sizeIndex++) {
+			int size = timerTable.getSize(sizeIndex);
+			long[] column = timerTable.getColumn(sizeIndex);
+			for (int id = 0; id < column.length; id++) {
+				long raw = column[id];
+				if (raw != 0) {
+					long corrected = getCorrectedTime(raw, counterTable, id, size);
+					double overheadFraction = (double) (raw - corrected) / raw;
+					fw.write(manifest.getKey(id) + "," + size + "," + raw + "," + corrected + "," + overheadFraction + "\n");
+				}
+			}
+		}
+		fw.close();
+	}
+	
+	// each loop header visit starts a timed interval, so a loop visited n times has n timed intervals
+	private static long getCorrectedTime(long raw, MeasurementTable counterTable, int id, int size) {
+		ProbeCalibration calibration = ProbeCalibration.getCalibration();
+		int sizeIndex = counterTable.getSizeIndex(size);
+		if (calibration == null || sizeIndex == -1 || raw <= 0) {
+			return raw;
+		}
+		long intervals = counterTable.get(id, sizeIndex);
+		long overhead = Math.round(intervals * calibration.getIterationOverhead());
+		return Math.max(0, raw - overhead);
+	}
+	
+	/**
+	 * Plots the regression of the given percentile (0-100) of the loop iteration times, 
+	 * requires the timer histograms to be enabled before the workloads are run
+	 * @param title
+	 * @param TOTAL_WORK_TASKS
+	 * @param percentile
+	 */
+	public static void plotTimerPercentileRegression(final String title, final int TOTAL_WORK_TASKS, final double percentile) throws IOException, InterruptedException {
+		Measurements measurements = new Measurements();
+		TreeMap<Integer, HashMap<String, LatencyHistogram>> histograms = TCA_Timer.getInstance().getHistograms();
+		for (int i = 1; i <= TOTAL_WORK_TASKS; i++) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			if (histograms.containsKey(i)) {
+				for (LatencyHistogram keyHistogram : histograms.get(i).values()) {
+					histogram.add(keyHistogram);
+				}
+			}
+			measurements.add(i, histogram.getValueAtPercentile(percentile));
+		}
+		
+		RegressionPlotChart scatterPlot = new RegressionPlotChart(title + " (p" + percentile + ")", measurements);
+		scatterPlot.show();
+	}
+	
+	/**
+	 * Rebuilds the iteration timeline of the loop with the given key from a trace file
+	 * The time of an iteration is the time between consecutive loop header events 
+	 * on the same thread for the same workload size, and the time of the last iteration
+	 * of an execution is the time from its last header event to the loop exit event.
+	 * An exit ends the execution, so the time until the loop runs again is not counted.
+	 * @param traceFile
+	 * @param key
+	 * @return The iteration times (in nanoseconds) in trace order
+	 * @throws IOException
+	 */
+	public static long[] getTraceIterationTimes(File traceFile, String key) throws IOException {
+		int id = ProbeManifest.getInstance().findId(key);
+		ArrayList<Long> iterationTimes = new ArrayList<Long>();
+		HashMap<Integer, long[]> lastEvents = new HashMap<Integer, long[]>(); // thread -> {size, timestamp}
+		TraceReader reader = new TraceReader(traceFile);
+		try {
+			while (reader.next()) {
+				if (reader.getId() == id) {
+					long[] lastEvent = lastEvents.get(reader.getThread());
+					if (lastEvent != null && lastEvent[0] == reader.getSize()) {
+						iterationTimes.add(reader.getTimestamp() - lastEvent[1]);
+					}
+					if (reader.isExit()) {
+						// the next header event starts a new execution
+						lastEvents.remove(reader.getThread());
+					} else {
+						lastEvents.put(reader.getThread(), new long[] { reader.getSize(), reader.getTimestamp() });
+					}
+				}
+			}
+			if (reader.getDroppedEvents() > 0) {
+				System.err.println("Warning: " + reader.getDroppedEvents() + " trace events were dropped while recording");
+			}
+		} finally {
+			reader.close();
+		}
+		long[] result = new long[iterationTimes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = iterationTimes.get(i);
+		}
+		return result;
+	}
+	
+	public static void plotTraceTimeline(final String title, final File traceFile, final String key) throws IOException {
+		long[] iterationTimes = getTraceIterationTimes(traceFile, key);
+		double[] data = new double[iterationTimes.length];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = iterationTimes[i];
+		}
+		FrequencyPlot timeline = new FrequencyPlot(title + " (" + key + ")", data);
+		timeline.show();
+	}
 
 }
\ No newline at end of file
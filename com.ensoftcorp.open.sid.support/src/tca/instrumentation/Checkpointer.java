@@ -0,0 +1,236 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Periodically checkpoints the measurements of a probe to a directory of append-only
+ * segments, so a crashed, killed or interrupted run keeps everything measured up 
+ * to its last checkpoint
+ * 
+ * Each checkpoint writes a new binary segment (see {@link MeasurementBinaryWriter}) 
+ * with only the measurements added since the previous checkpoint. A segment is
+ * written to a temporary file and renamed into place when it is complete, so the
+ * directory only ever holds whole segments. Segments are never rewritten, and the 
+ * measurements of a run are the sum of its segments (see {@link #merge(File, MeasurementWriter)}).
+ * 
+ * Merge the segments of a run with: 
+ * 	java tca.instrumentation.Checkpointer &lt;directory&gt; &lt;output file&gt;
+ */
+public class Checkpointer {
+	
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 10000; // milliseconds
+	
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = MeasurementFiles.BINARY_EXTENSION;
+	
+	private final MeasurementProbe probe;
+	private final File directory;
+	private final String valueName;
+	
+	// the measurements already written to segments
+	private MeasurementTable checkpointed = new MeasurementTable();
+	private int segments = 0;
+	
+	private volatile boolean closed = false;
+	private final Thread checkpointer;
+	
+	private Checkpointer(MeasurementProbe probe, File directory, String valueName, final long checkpointInterval) throws IOException {
+		this.probe = probe;
+		this.directory = directory;
+		this.valueName = valueName;
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create checkpoint directory " + directory.getAbsolutePath());
+		}
+		// clear the segments of any previous run
+		for(File segment : getSegments(directory)){
+			if(!segment.delete()){
+				throw new IOException("Could not delete previous checkpoint " + segment.getAbsolutePath());
+			}
+		}
+		
+		checkpointer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while(!closed){
+					try {
+						Thread.sleep(checkpointInterval);
+					} catch (InterruptedException e) {}
+					if(!closed){
+						try {
+							checkpoint();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}, "TCA Checkpointer");
+		checkpointer.setDaemon(true);
+		checkpointer.start();
+	}
+	
+	/**
+	 * Starts checkpointing the given probe's measurements with the default checkpoint interval
+	 * @param probe
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static Checkpointer start(MeasurementProbe probe, File directory) throws IOException {
+		return start(probe, directory, "COUNT", DEFAULT_CHECKPOINT_INTERVAL);
+	}
+	
+	/**
+	 * Starts checkpointing the given probe's measurements
+	 * @param probe The probe to checkpoint
+	 * @param directory The segment directory (the segments of any previous run are deleted)
+	 * @param valueName The name of the measured value (for example COUNT)
+	 * @param checkpointInterval The milliseconds between checkpoints
+	 * @return
+	 * @throws IOException
+	 */
+	public static Checkpointer start(MeasurementProbe probe, File directory, String valueName, long checkpointInterval) throws IOException {
+		return new Checkpointer(probe, directory, valueName, checkpointInterval);
+	}
+	
+	/**
+	 * Writes a segment with the measurements added since the previous checkpoint
+	 * @return The number of measurements written (no segment is written if there are none)
+	 * @throws IOException
+	 */
+	public synchronized int checkpoint() throws IOException {
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		MeasurementTable current = probe.getMeasurements();
+		MeasurementTable delta = current.copy();
+		delta.subtractAll(checkpointed);
+		int measurements = 0;
+		File segment = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, segments, SEGMENT_SUFFIX));
+		File temporary = new File(directory, segment.getName() + ".tmp");
+		MeasurementWriter writer = new MeasurementBinaryWriter(temporary, valueName);
+		try {
+			for(int id=0; id<delta.getKeyCount(); id++){
+				String key = null;
+				for(int sizeIndex=0; sizeIndex<delta.getSizeCount(); sizeIndex++){
+					long value = delta.get(id, sizeIndex);
+					if(value != 0){
+						if(key == null){
+							key = manifest.getKey(id);
+						}
+						writer.write(key, delta.getSize(sizeIndex), value);
+						measurements++;
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		if(measurements == 0){
+			temporary.delete();
+		} else {
+			if(!temporary.renameTo(segment)){
+				throw new IOException("Could not write checkpoint " + segment.getAbsolutePath());
+			}
+			segments++;
+		}
+		checkpointed = current;
+		return measurements;
+	}
+	
+	/**
+	 * Returns the number of segments written so far
+	 * @return
+	 */
+	public synchronized int getSegmentCount(){
+		return segments;
+	}
+	
+	/**
+	 * Stops the periodic checkpoints and writes a final checkpoint
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if(!closed){
+			closed = true;
+			checkpointer.interrupt();
+			checkpoint();
+		}
+	}
+	
+	private static File[] getSegments(File directory){
+		File[] segments = directory.listFiles(new FilenameFilter(){
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if(segments == null){
+			return new File[0];
+		}
+		Arrays.sort(segments); // segment numbers are zero padded
+		return segments;
+	}
+	
+	/**
+	 * Sums the segments of the given checkpoint directory and writes the measurements
+	 * to the given writer grouped by key, then closes the writer
+	 * @param directory
+	 * @param writer
+	 * @return The number of segments merged
+	 * @throws IOException
+	 */
+	public static int merge(File directory, MeasurementWriter writer) throws IOException {
+		File[] segments = getSegments(directory);
+		LinkedHashMap<String,TreeMap<Integer,Long>> measurements = new LinkedHashMap<String,TreeMap<Integer,Long>>();
+		try {
+			for(File segment : segments){
+				MeasurementReader reader = new MeasurementBinaryReader(segment);
+				try {
+					while(reader.next()){
+						TreeMap<Integer,Long> keyMeasurements = measurements.get(reader.getKey());
+						if(keyMeasurements == null){
+							keyMeasurements = new TreeMap<Integer,Long>();
+							measurements.put(reader.getKey(), keyMeasurements);
+						}
+						Long value = keyMeasurements.get(reader.getSize());
+						keyMeasurements.put(reader.getSize(), (value == null ? 0L : value) + reader.getValue());
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			for(Entry<String,TreeMap<Integer,Long>> keyMeasurements : measurements.entrySet()){
+				for(Entry<Integer,Long> measurement : keyMeasurements.getValue().entrySet()){
+					if(measurement.getValue() != 0){
+						writer.write(keyMeasurements.getKey(), measurement.getKey(), measurement.getValue());
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return segments.length;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2){
+			System.err.println("Usage: Checkpointer <checkpoint directory> <output file (.tcab for binary, otherwise csv)>");
+			System.exit(1);
+		}
+		File[] segments = getSegments(new File(args[0]));
+		String valueName = "COUNT";
+		if(segments.length > 0){
+			MeasurementBinaryReader reader = new MeasurementBinaryReader(segments[0]);
+			valueName = reader.getValueName();
+			reader.close();
+		}
+		int merged = merge(new File(args[0]), MeasurementFiles.openWriter(new File(args[1]), valueName));
+		System.out.println("Merged " + merged + " checkpoint segments into " + args[1]);
+	}
+	
+}
@@ -0,0 +1,225 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a sweep of workload sizes on a pool of child JVMs, so a sweep uses all of the
+ * cores of the machine and every workload size is measured in its own JVM
+ *
+ * The probes are static singletons, so workload sizes run in one JVM share their
+ * probe state, class initialization, JIT profile and heap. The sweep starts the
+ * driver's main class again in a child JVM for each workload size, with the same
+ * class path and JVM arguments. The child finds its size with {@link #getWorkerSize()},
+ * runs the workload and saves its probes with {@link #saveWorkerMeasurements(MeasurementProbe, String)}.
+ * The parent runs up to the given number of children at a time, largest sizes first
+ * so the slowest sizes do not start last, and merges their measurements back into
+ * its own probes with {@link #load(MeasurementProbe, String)}, where they can be
+ * reported as if the sweep had run in the parent.
+ *
+ * The output and the measurements of each child are kept in the sweep directory.
+ */
+public class ForkedSweep {
+	
+	/**
+	 * The system property that passes a child JVM its workload size
+	 */
+	public static final String SIZE_PROPERTY = "tca.sweep.size";
+	
+	/**
+	 * The system property that passes a child JVM the sweep directory
+	 */
+	public static final String DIRECTORY_PROPERTY = "tca.sweep.directory";
+	
+	private final Class<?> mainClass;
+	private final File directory;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	
+	// the sizes whose child JVM completed, guarded by this
+	private final TreeSet<Integer> completedSizes = new TreeSet<Integer>();
+	
+	/**
+	 * Creates a sweep that runs the main method of the given class in each child JVM
+	 * @param mainClass
+	 * @param directory The directory for the output and measurements of the children
+	 */
+	public ForkedSweep(Class<?> mainClass, File directory){
+		this.mainClass = mainClass;
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns true if this JVM is a child JVM of a sweep
+	 * @return
+	 */
+	public static boolean isWorker(){
+		return System.getProperty(SIZE_PROPERTY) != null;
+	}
+	
+	/**
+	 * Returns the workload size this child JVM runs
+	 * @return
+	 */
+	public static int getWorkerSize(){
+		String size = System.getProperty(SIZE_PROPERTY);
+		if(size == null){
+			throw new IllegalStateException("This JVM is not a sweep worker");
+		}
+		return Integer.parseInt(size);
+	}
+	
+	/**
+	 * Saves the measurements of the given probe in this child JVM for the parent to load
+	 * @param probe
+	 * @param name The name the parent loads the measurements by, such as "counter"
+	 * @throws IOException
+	 */
+	public static void saveWorkerMeasurements(MeasurementProbe probe, String name) throws IOException {
+		File directory = new File(System.getProperty(DIRECTORY_PROPERTY, "."));
+		probe.saveKeyMeasurements(getMeasurementsFile(directory, name, getWorkerSize()));
+	}
+	
+	private static File getMeasurementsFile(File directory, String name, int size){
+		return new File(directory, name + "-" + size + MeasurementFiles.BINARY_EXTENSION);
+	}
+	
+	/**
+	 * Sets the number of child JVMs run at the same time, defaults to the number of processors
+	 *
+	 * Timings of concurrent children contend for the shared caches and memory bandwidth
+	 * of the machine, so timer sweeps may need fewer workers than counter sweeps.
+	 * @param workers
+	 */
+	public void setWorkers(int workers){
+		if(workers < 1){
+			throw new IllegalArgumentException("A sweep needs at least one worker");
+		}
+		this.workers = workers;
+	}
+	
+	public int getWorkers(){
+		return workers;
+	}
+	
+	/**
+	 * Runs a child JVM for each of the workload sizes from minimum to maximum (inclusive)
+	 * and waits for all of them to finish. A child that fails is reported and its size
+	 * is left out of the results.
+	 * @param minimumSize
+	 * @param maximumSize
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run(int minimumSize, int maximumSize) throws IOException, InterruptedException {
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create sweep directory " + directory.getAbsolutePath());
+		}
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for(int size=minimumSize; size<=maximumSize; size++){
+			sizes.add(size);
+		}
+		synchronized (this) {
+			completedSizes.clear();
+		}
+		Collections.reverse(sizes);
+		
+		final List<String> command = getJavaCommand(mainClass);
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(final Integer size : sizes){
+			results.add(pool.submit(new Callable<Void>(){
+				@Override
+				public Void call() throws Exception {
+					runWorker(command, size);
+					return null;
+				}
+			}));
+		}
+		try {
+			for(Future<Void> result : results){
+				try {
+					result.get();
+				} catch (ExecutionException e){
+					System.err.println("Warning: sweep worker failed, " + e.getCause());
+				}
+			}
+		} finally {
+			// interrupting the pool threads destroys the children they are waiting for
+			pool.shutdownNow();
+		}
+	}
+	
+	private void runWorker(List<String> command, int size) throws IOException, InterruptedException {
+		File measurements = directory.getAbsoluteFile();
+		ArrayList<String> workerCommand = new ArrayList<String>(command);
+		workerCommand.add(workerCommand.size() - 1, "-D" + SIZE_PROPERTY + "=" + size);
+		workerCommand.add(workerCommand.size() - 1, "-D" + DIRECTORY_PROPERTY + "=" + measurements.getPath());
+		ProcessBuilder builder = new ProcessBuilder(workerCommand);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(directory, "worker-" + size + ".log"));
+		Process process = builder.start();
+		try {
+			int exitCode = process.waitFor();
+			if(exitCode != 0){
+				System.err.println("Warning: sweep worker for workload size " + size + " exited with " + exitCode
+						+ ", see " + new File(directory, "worker-" + size + ".log").getPath());
+				return;
+			}
+		} finally {
+			process.destroy();
+		}
+		synchronized (this) {
+			completedSizes.add(size);
+		}
+	}
+	
+	// the java command of this JVM with the main class last
+	static List<String> getJavaCommand(Class<?> mainClass){
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for(String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+			// the children can not share the debugger port of the parent
+			if(!argument.startsWith("-agentlib:jdwp") && !argument.startsWith("-Xrunjdwp")){
+				command.add(argument);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass.getName());
+		return command;
+	}
+	
+	/**
+	 * Returns the workload sizes whose child JVM completed
+	 * @return
+	 */
+	public synchronized TreeSet<Integer> getCompletedSizes(){
+		return new TreeSet<Integer>(completedSizes);
+	}
+	
+	/**
+	 * Adds the measurements the completed children saved under the given name to the given probe
+	 * @param probe
+	 * @param name
+	 * @throws IOException
+	 */
+	public void load(MeasurementProbe probe, String name) throws IOException {
+		for(Integer size : getCompletedSizes()){
+			File measurements = getMeasurementsFile(directory, name, size);
+			if(measurements.exists()){
+				probe.loadKeyMeasurements(measurements);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,128 @@
+package tca.instrumentation;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Attributes stop the world garbage collection pauses to the workload size that
+ * was running when each pause started
+ *
+ * The collectors report pauses asynchronously with millisecond start times relative
+ * to the JVM start, so the monitor keeps a timeline of workload size changes on the
+ * same clock and looks up the size of each pause when its notification arrives.
+ */
+class GcPauseMonitor implements NotificationListener {
+	
+	// size timeline, sizes[i] was active from uptimes[i] until uptimes[i+1]
+	private long[] uptimes = new long[64];
+	private int[] sizes = new int[64];
+	private int changes = 0;
+	
+	// pause time in nanoseconds and number of pauses by workload size
+	private final HashMap<Integer, Long> pauseTimes = new HashMap<Integer, Long>();
+	private final HashMap<Integer, Long> pauseCounts = new HashMap<Integer, Long>();
+	
+	private final ArrayList<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+	
+	/**
+	 * Subscribes to the collectors' notifications, the given size is active from now on
+	 * @param size
+	 */
+	GcPauseMonitor(int size){
+		setSize(size);
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+			if(collector instanceof NotificationEmitter){
+				NotificationEmitter emitter = (NotificationEmitter) collector;
+				emitter.addNotificationListener(this, null, null);
+				emitters.add(emitter);
+			}
+		}
+	}
+	
+	/**
+	 * Unsubscribes from the collectors' notifications
+	 */
+	synchronized void close(){
+		for(NotificationEmitter emitter : emitters){
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (Exception e){
+				// already removed
+			}
+		}
+		emitters.clear();
+	}
+	
+	/**
+	 * Records that the given workload size is active from now on
+	 * @param size
+	 */
+	synchronized void setSize(int size){
+		if(changes == uptimes.length){
+			uptimes = Arrays.copyOf(uptimes, changes * 2);
+			sizes = Arrays.copyOf(sizes, changes * 2);
+		}
+		uptimes[changes] = ManagementFactory.getRuntimeMXBean().getUptime();
+		sizes[changes] = size;
+		changes++;
+	}
+	
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())){
+			return;
+		}
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		if(!isPause(info.getGcAction())){
+			return;
+		}
+		record(info.getGcInfo().getStartTime(), info.getGcInfo().getDuration());
+	}
+	
+	// HotSpot reports stop the world collections as minor or major GCs, concurrent
+	// collectors report their pauses separately from their concurrent cycles
+	private static boolean isPause(String gcAction){
+		return gcAction.endsWith("minor GC") || gcAction.endsWith("major GC") || gcAction.contains("pause");
+	}
+	
+	private synchronized void record(long startUptime, long durationMillis){
+		int size = sizes[0];
+		for(int i=changes-1; i>=0; i--){
+			if(uptimes[i] <= startUptime){
+				size = sizes[i];
+				break;
+			}
+		}
+		Long pauseTime = pauseTimes.get(size);
+		pauseTimes.put(size, (pauseTime == null ? 0L : pauseTime) + (durationMillis * 1000000L));
+		Long pauseCount = pauseCounts.get(size);
+		pauseCounts.put(size, (pauseCount == null ? 0L : pauseCount) + 1);
+	}
+	
+	/**
+	 * Returns the total pause time (in nanoseconds) by workload size
+	 * @return
+	 */
+	synchronized HashMap<Integer, Long> getPauseTimes(){
+		return new HashMap<Integer, Long>(pauseTimes);
+	}
+	
+	/**
+	 * Returns the number of pauses by workload size
+	 * @return
+	 */
+	synchronized HashMap<Integer, Long> getPauseCounts(){
+		return new HashMap<Integer, Long>(pauseCounts);
+	}
+	
+}
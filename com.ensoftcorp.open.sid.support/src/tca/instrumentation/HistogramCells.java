@@ -0,0 +1,128 @@
+package tca.instrumentation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms indexed by workload size and measurement key ID. A histogram
+ * is only allocated the first time its cell records a value.
+ *
+ * Each histogram holds 1888 long buckets (about 15 KB), so the cells are shared by
+ * all threads instead of being kept for each thread like {@link ProbeCells}: the memory
+ * is bounded by one histogram per recorded workload size and key, regardless of the
+ * number of threads. Threads record into a histogram while holding its lock, which is
+ * uncontended unless several threads record the same size and key at the same time.
+ */
+public class HistogramCells {
+
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// the histograms of each workload size, guarded by this
+	private final HashMap<Integer, LatencyHistogram[]> sizeCells = new HashMap<Integer, LatencyHistogram[]>();
+	
+	/**
+	 * The histograms of the last workload size seen by a single thread
+	 */
+	private static class ThreadCells {
+		private int size = Integer.MIN_VALUE;
+		private LatencyHistogram[] cells = new LatencyHistogram[0];
+	}
+	
+	private final ThreadLocal<ThreadCells> threadCells = new ThreadLocal<ThreadCells>(){
+		@Override
+		protected ThreadCells initialValue() {
+			return new ThreadCells();
+		}
+	};
+	
+	/**
+	 * Records the value in the histogram of the given size and key ID
+	 * @param size
+	 * @param id
+	 * @param value
+	 */
+	public void record(int size, int id, long value){
+		ThreadCells cells = threadCells.get();
+		if(cells.size != size){
+			select(cells, size);
+		}
+		LatencyHistogram histogram = id < cells.cells.length ? cells.cells[id] : null;
+		if(histogram == null){
+			histogram = create(cells, id);
+		}
+		synchronized (histogram) {
+			histogram.record(value);
+		}
+	}
+	
+	private synchronized void select(ThreadCells cells, int size){
+		LatencyHistogram[] histograms = sizeCells.get(size);
+		if(histograms == null){
+			histograms = new LatencyHistogram[INITIAL_CAPACITY];
+			sizeCells.put(size, histograms);
+		}
+		cells.size = size;
+		cells.cells = histograms;
+	}
+	
+	// returns the histogram of the thread's size and the given id, another thread may have
+	// created it (or grown the cells) since the thread selected the size
+	private synchronized LatencyHistogram create(ThreadCells cells, int id){
+		LatencyHistogram[] histograms = sizeCells.get(cells.size);
+		if(id >= histograms.length){
+			histograms = Arrays.copyOf(histograms, Math.max(histograms.length * 2, id + 1));
+			sizeCells.put(cells.size, histograms);
+		}
+		LatencyHistogram histogram = histograms[id];
+		if(histogram == null){
+			histogram = new LatencyHistogram();
+			// published under its own lock, so the threads that read the cell without
+			// the lock of the cells see it initialized once they lock it to record
+			synchronized (histogram) {
+				histograms[id] = histogram;
+			}
+		}
+		cells.cells = histograms;
+		return histogram;
+	}
+	
+	/**
+	 * Returns copies of the histograms of the given workload size indexed
+	 * by measurement key ID (null entries were never recorded)
+	 * @param size
+	 * @return
+	 */
+	public synchronized LatencyHistogram[] snapshot(int size){
+		LatencyHistogram[] histograms = sizeCells.get(size);
+		return histograms == null ? new LatencyHistogram[0] : copy(histograms);
+	}
+	
+	/**
+	 * Returns copies of the histograms of every workload size, indexed by
+	 * workload size and measurement key ID
+	 * @return
+	 */
+	public synchronized TreeMap<Integer, LatencyHistogram[]> snapshot(){
+		TreeMap<Integer, LatencyHistogram[]> result = new TreeMap<Integer, LatencyHistogram[]>();
+		for(Entry<Integer, LatencyHistogram[]> entry : sizeCells.entrySet()){
+			result.put(entry.getKey(), copy(entry.getValue()));
+		}
+		return result;
+	}
+	
+	private static LatencyHistogram[] copy(LatencyHistogram[] histograms){
+		LatencyHistogram[] result = new LatencyHistogram[histograms.length];
+		for(int id=0; id<histograms.length; id++){
+			if(histograms[id] != null){
+				result[id] = new LatencyHistogram();
+				synchronized (histograms[id]) {
+					result[id].add(histograms[id]);
+				}
+			}
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,285 @@
+package tca.instrumentation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * A fixed memory, log bucketed histogram of non-negative long values (ex: nanosecond deltas)
+ * 
+ * Values are bucketed by their most significant bit and then linearly into 
+ * 2^SUB_BUCKET_BITS sub buckets, so every recorded value is reported within a 
+ * relative error of 1/2^SUB_BUCKET_BITS (~3%) regardless of its magnitude.
+ * The min, max, count and sum are tracked exactly (and the sum of squares for the variance).
+ * 
+ * Histograms are not thread safe, but are mergeable, so each thread may record 
+ * into its own histogram and merge them when the results are needed.
+ */
+public class LatencyHistogram {
+
+	// the original layout (without the sum of squares) has no version, the
+	// versioned layout writes its version byte after its own magic number
+	private static final int MAGIC = 0x54434148; // TCAH
+	private static final int VERSIONED_MAGIC = 0x54434856; // TCHV
+	private static final int VERSION = 2;
+	
+	public static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private double sumOfSquares = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+	
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		}
+		counts[getBucket(value)]++;
+		count++;
+		sum += value;
+		sumOfSquares += (double) value * value;
+		if(value < min){
+			min = value;
+		}
+		if(value > max){
+			max = value;
+		}
+	}
+	
+	// values below 2^SUB_BUCKET_BITS get their own bucket, larger values keep 
+	// only the SUB_BUCKET_BITS bits after their most significant bit
+	private static int getBucket(long value){
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		if(msb < SUB_BUCKET_BITS){
+			return (int) value;
+		}
+		int shift = msb - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+	
+	// the largest value that falls into the given bucket
+	private static long getBucketUpperBound(int bucket){
+		if(bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+		return ((subBucket + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Adds all of the recorded values of the given histogram to this histogram
+	 * @param histogram
+	 */
+	public void add(LatencyHistogram histogram){
+		for(int i=0; i<BUCKETS; i++){
+			counts[i] += histogram.counts[i];
+		}
+		count += histogram.count;
+		sum += histogram.sum;
+		sumOfSquares += histogram.sumOfSquares;
+		min = Math.min(min, histogram.min);
+		max = Math.max(max, histogram.max);
+	}
+	
+	public long getCount(){
+		return count;
+	}
+	
+	public long getSum(){
+		return sum;
+	}
+	
+	public long getMin(){
+		return count == 0 ? 0 : min;
+	}
+	
+	public long getMax(){
+		return max;
+	}
+	
+	public double getMean(){
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * Returns the (unbiased) sample variance of the recorded values
+	 * @return
+	 */
+	public double getVariance(){
+		if(count < 2){
+			return 0;
+		}
+		double mean = getMean();
+		return Math.max(0, (sumOfSquares - (count * mean * mean)) / (count - 1));
+	}
+	
+	/**
+	 * Returns the value at the given percentile (0-100), the result is the 
+	 * upper bound of the bucket containing the percentile, capped at the max value
+	 * @param percentile
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile){
+		if(count == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil((Math.min(Math.max(percentile, 0), 100) / 100.0) * count);
+		if(rank < 1){
+			rank = 1;
+		}
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++){
+			seen += counts[i];
+			if(seen >= rank){
+				return Math.min(getBucketUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Writes the histogram in a compact form, only non-empty buckets are written
+	 * as varint encoded (bucket index delta, count) pairs
+	 * @param output
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeInt(VERSIONED_MAGIC);
+		output.writeByte(VERSION);
+		output.writeByte(SUB_BUCKET_BITS);
+		writeVarLong(output, count);
+		writeVarLong(output, sum);
+		writeVarLong(output, getMin());
+		writeVarLong(output, max);
+		output.writeDouble(sumOfSquares);
+		int nonEmptyBuckets = 0;
+		for(int i=0; i<BUCKETS; i++){
+			if(counts[i] != 0){
+				nonEmptyBuckets++;
+			}
+		}
+		writeVarLong(output, nonEmptyBuckets);
+		int lastBucket = 0;
+		for(int i=0; i<BUCKETS; i++){
+			if(counts[i] != 0){
+				writeVarLong(output, i - lastBucket);
+				writeVarLong(output, counts[i]);
+				lastBucket = i;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a histogram written by {@link #writeTo(DataOutput)}, or in the original
+	 * layout without the sum of squares, which is then estimated from the buckets
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public static LatencyHistogram readFrom(DataInput input) throws IOException {
+		int magic = input.readInt();
+		int version;
+		if(magic == MAGIC){
+			version = 1;
+		} else if(magic == VERSIONED_MAGIC){
+			version = input.readByte();
+			if(version != VERSION){
+				throw new IOException("Unsupported histogram version " + version);
+			}
+		} else {
+			throw new IOException("Not a serialized histogram");
+		}
+		if(input.readByte() != SUB_BUCKET_BITS){
+			throw new IOException("Unsupported histogram precision");
+		}
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.count = readVarLong(input);
+		histogram.sum = readVarLong(input);
+		histogram.min = readVarLong(input);
+		if(histogram.count == 0){
+			histogram.min = Long.MAX_VALUE;
+		}
+		histogram.max = readVarLong(input);
+		if(version > 1){
+			histogram.sumOfSquares = input.readDouble();
+		}
+		long nonEmptyBuckets = readVarLong(input);
+		int bucket = 0;
+		for(long i=0; i<nonEmptyBuckets; i++){
+			bucket += (int) readVarLong(input);
+			if(bucket < 0 || bucket >= BUCKETS){
+				throw new IOException("Invalid histogram bucket " + bucket);
+			}
+			histogram.counts[bucket] = readVarLong(input);
+		}
+		if(version == 1){
+			histogram.sumOfSquares = histogram.estimateSumOfSquares();
+		}
+		return histogram;
+	}
+	
+	// the sum of squares with every value at the middle of its bucket, within 
+	// the relative error of the buckets (the variance is then approximate)
+	private double estimateSumOfSquares(){
+		double result = 0;
+		for(int i=0; i<BUCKETS; i++){
+			if(counts[i] != 0){
+				long lower = i == 0 ? 0 : getBucketUpperBound(i - 1) + 1;
+				double middle = (Math.max(lower, getMin()) + Math.min(getBucketUpperBound(i), max)) / 2.0;
+				result += counts[i] * middle * middle;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the serialized histogram as a Base64 string (ex: for a CSV column)
+	 * @return
+	 */
+	public String encode(){
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			writeTo(output);
+			output.flush();
+			return Base64.getEncoder().encodeToString(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new RuntimeException(e); // not possible for in memory streams
+		}
+	}
+	
+	public static LatencyHistogram decode(String encoding) throws IOException {
+		return readFrom(new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoding))));
+	}
+	
+	static void writeVarLong(DataOutput output, long value) throws IOException {
+		while((value & ~0x7FL) != 0){
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	
+	static long readVarLong(DataInput input) throws IOException {
+		long value = 0;
+		for(int shift=0; shift<64; shift+=7){
+			byte b = input.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+}
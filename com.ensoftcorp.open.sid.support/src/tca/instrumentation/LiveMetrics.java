@@ -0,0 +1,346 @@
+package tca.instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the counter and timer measurements of a running instrumented program,
+ * so long runs can be watched without stopping the process
+ *
+ * A background thread periodically takes a snapshot of both probes and computes
+ * the rate of each loop since the previous snapshot. The latest snapshot is served
+ * as a JMX MBean (tca.instrumentation:type=LiveMetrics) and as JSON from
+ * http://localhost:port/metrics. The HTTP server only listens on the loopback address.
+ */
+public class LiveMetrics implements LiveMetricsMBean {
+	
+	public static final String OBJECT_NAME = "tca.instrumentation:type=LiveMetrics";
+	public static final String PORT_PROPERTY = "tca.metrics.port";
+	public static final long DEFAULT_SNAPSHOT_INTERVAL = 1000; // milliseconds
+	
+	/**
+	 * An immutable snapshot of the counter and timer measurements with
+	 * the per-key totals and rates since the previous snapshot
+	 */
+	private static class Snapshot {
+		private final long timestamp;
+		private final MeasurementTable counts;
+		private final MeasurementTable times;
+		private final long[] countTotals;
+		private final long[] timeTotals;
+		private final double[] countRates;
+		private final double[] timeRates;
+		
+		private Snapshot(long timestamp, MeasurementTable counts, MeasurementTable times, Snapshot previous){
+			this.timestamp = timestamp;
+			this.counts = counts;
+			this.times = times;
+			this.countTotals = getKeyTotals(counts);
+			this.timeTotals = getKeyTotals(times);
+			double seconds = previous == null ? 0 : (timestamp - previous.timestamp) / 1000.0;
+			this.countRates = getRates(countTotals, previous == null ? null : previous.countTotals, seconds);
+			this.timeRates = getRates(timeTotals, previous == null ? null : previous.timeTotals, seconds);
+		}
+		
+		private static long[] getKeyTotals(MeasurementTable table){
+			long[] totals = new long[table.getKeyCount()];
+			for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+				long[] column = table.getColumn(sizeIndex);
+				for(int id=0; id<column.length; id++){
+					totals[id] += column[id];
+				}
+			}
+			return totals;
+		}
+		
+		private static double[] getRates(long[] totals, long[] previousTotals, double seconds){
+			double[] rates = new double[totals.length];
+			if(previousTotals != null && seconds > 0){
+				for(int id=0; id<totals.length; id++){
+					long previousTotal = id < previousTotals.length ? previousTotals[id] : 0;
+					rates[id] = (totals[id] - previousTotal) / seconds;
+				}
+			}
+			return rates;
+		}
+		
+		private int getKeyCount(){
+			return Math.max(countTotals.length, timeTotals.length);
+		}
+		
+		private static long get(long[] values, int id){
+			return id >= 0 && id < values.length ? values[id] : 0;
+		}
+		
+		private static double get(double[] values, int id){
+			return id >= 0 && id < values.length ? values[id] : 0;
+		}
+	}
+	
+	private final MBeanServer mbeanServer;
+	private final ObjectName objectName;
+	private final HttpServer httpServer;
+	private final ExecutorService httpExecutor;
+	private final Thread snapshotter;
+	private volatile Snapshot snapshot;
+	private volatile boolean closed = false;
+	
+	private LiveMetrics(int port, final long snapshotInterval) throws IOException {
+		snapshot();
+		
+		snapshotter = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while(!closed){
+					try {
+						Thread.sleep(snapshotInterval);
+					} catch (InterruptedException e) {}
+					if(!closed){
+						snapshot();
+					}
+				}
+			}
+		}, "TCA Live Metrics");
+		snapshotter.setDaemon(true);
+		
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			objectName = new ObjectName(OBJECT_NAME);
+			if(mbeanServer.isRegistered(objectName)){
+				mbeanServer.unregisterMBean(objectName);
+			}
+			mbeanServer.registerMBean(this, objectName);
+		} catch (JMException e) {
+			throw new IOException("Could not register the live metrics MBean", e);
+		}
+		
+		httpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TCA Live Metrics HTTP");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		} catch (IOException e) {
+			unregister();
+			httpExecutor.shutdown();
+			throw e;
+		}
+		httpServer.createContext("/metrics", new HttpHandler(){
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] response = getSnapshot().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				exchange.sendResponseHeaders(200, response.length);
+				OutputStream body = exchange.getResponseBody();
+				body.write(response);
+				body.close();
+			}
+		});
+		httpServer.setExecutor(httpExecutor);
+		httpServer.start();
+		snapshotter.start();
+	}
+	
+	/**
+	 * Starts publishing the live metrics on the given localhost port with the default snapshot interval
+	 * @param port The HTTP port, 0 picks a free port (see {@link #getPort()})
+	 * @return
+	 * @throws IOException
+	 */
+	public static LiveMetrics start(int port) throws IOException {
+		return start(port, DEFAULT_SNAPSHOT_INTERVAL);
+	}
+	
+	/**
+	 * Starts publishing the live metrics on the given localhost port
+	 * @param port The HTTP port, 0 picks a free port (see {@link #getPort()})
+	 * @param snapshotInterval The milliseconds between snapshots
+	 * @return
+	 * @throws IOException
+	 */
+	public static LiveMetrics start(int port, long snapshotInterval) throws IOException {
+		return new LiveMetrics(port, snapshotInterval);
+	}
+	
+	/**
+	 * Returns the HTTP port the metrics are served on
+	 * @return
+	 */
+	public int getPort(){
+		return httpServer.getAddress().getPort();
+	}
+	
+	/**
+	 * Takes a new snapshot of the counter and timer measurements
+	 */
+	public synchronized void snapshot(){
+		MeasurementTable counts = TCA_Counter.getInstance().getMeasurements();
+		MeasurementTable times = TCA_Timer.getInstance().getMeasurements();
+		snapshot = new Snapshot(System.currentTimeMillis(), counts, times, snapshot);
+	}
+	
+	/**
+	 * Stops the snapshots, the HTTP server, and unregisters the MBean
+	 */
+	public synchronized void close(){
+		if(!closed){
+			closed = true;
+			snapshotter.interrupt();
+			httpServer.stop(0);
+			httpExecutor.shutdown();
+			unregister();
+		}
+	}
+	
+	private void unregister(){
+		try {
+			if(mbeanServer.isRegistered(objectName)){
+				mbeanServer.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			// already unregistered
+		}
+	}
+	
+	@Override
+	public long getSnapshotTimestamp() {
+		return snapshot.timestamp;
+	}
+	
+	@Override
+	public String[] getKeys() {
+		Snapshot current = snapshot;
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		TreeSet<String> keys = new TreeSet<String>();
+		for(int id=0; id<current.getKeyCount(); id++){
+			if(Snapshot.get(current.countTotals, id) != 0 || Snapshot.get(current.timeTotals, id) != 0){
+				keys.add(manifest.getKey(id));
+			}
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+	
+	@Override
+	public long getTotalCount() {
+		long total = 0;
+		for(long count : snapshot.countTotals){
+			total += count;
+		}
+		return total;
+	}
+	
+	@Override
+	public long getTotalTime() {
+		long total = 0;
+		for(long time : snapshot.timeTotals){
+			total += time;
+		}
+		return total;
+	}
+	
+	@Override
+	public long getCount(String key) {
+		return Snapshot.get(snapshot.countTotals, ProbeManifest.getInstance().findId(key));
+	}
+	
+	@Override
+	public long getTime(String key) {
+		return Snapshot.get(snapshot.timeTotals, ProbeManifest.getInstance().findId(key));
+	}
+	
+	@Override
+	public double getCountRate(String key) {
+		return Snapshot.get(snapshot.countRates, ProbeManifest.getInstance().findId(key));
+	}
+	
+	@Override
+	public double getTimeRate(String key) {
+		return Snapshot.get(snapshot.timeRates, ProbeManifest.getInstance().findId(key));
+	}
+	
+	@Override
+	public String getSnapshot() {
+		Snapshot current = snapshot;
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"timestamp\":").append(current.timestamp).append(",\"loops\":[");
+		String loopPrefix = "";
+		for(int id=0; id<current.getKeyCount(); id++){
+			long count = Snapshot.get(current.countTotals, id);
+			long time = Snapshot.get(current.timeTotals, id);
+			if(count == 0 && time == 0){
+				continue;
+			}
+			json.append(loopPrefix);
+			loopPrefix = ",";
+			json.append("{\"key\":\"").append(escape(manifest.getKey(id))).append("\"");
+			json.append(",\"id\":").append(id);
+			json.append(",\"count\":").append(count);
+			json.append(",\"countRate\":").append(Snapshot.get(current.countRates, id));
+			json.append(",\"time\":").append(time);
+			json.append(",\"timeRate\":").append(Snapshot.get(current.timeRates, id));
+			json.append(",\"sizes\":[");
+			appendSizes(json, current, id);
+			json.append("]}");
+		}
+		json.append("]}");
+		return json.toString();
+	}
+	
+	// appends the per size values of the given key in ascending size order
+	private static void appendSizes(StringBuilder json, Snapshot current, int id){
+		TreeSet<Integer> sizes = new TreeSet<Integer>();
+		for(int sizeIndex=0; sizeIndex<current.counts.getSizeCount(); sizeIndex++){
+			sizes.add(current.counts.getSize(sizeIndex));
+		}
+		for(int sizeIndex=0; sizeIndex<current.times.getSizeCount(); sizeIndex++){
+			sizes.add(current.times.getSize(sizeIndex));
+		}
+		String sizePrefix = "";
+		for(Integer size : sizes){
+			int countSizeIndex = current.counts.getSizeIndex(size);
+			int timeSizeIndex = current.times.getSizeIndex(size);
+			long count = countSizeIndex == -1 ? 0 : current.counts.get(id, countSizeIndex);
+			long time = timeSizeIndex == -1 ? 0 : current.times.get(id, timeSizeIndex);
+			if(count != 0 || time != 0){
+				json.append(sizePrefix);
+				sizePrefix = ",";
+				json.append("{\"size\":").append(size).append(",\"count\":").append(count).append(",\"time\":").append(time).append("}");
+			}
+		}
+	}
+	
+	private static String escape(String value){
+		StringBuilder result = new StringBuilder();
+		for(char c : value.toCharArray()){
+			if(c == '"' || c == '\\'){
+				result.append('\\').append(c);
+			} else if(c < 0x20){
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+	
+}
@@ -0,0 +1,68 @@
+package tca.instrumentation;
+
+/**
+ * The JMX view of the {@link LiveMetrics} of a running instrumented program,
+ * all values are read from the latest snapshot
+ */
+public interface LiveMetricsMBean {
+	
+	/**
+	 * Returns the time (in milliseconds since the epoch) the latest snapshot was taken
+	 * @return
+	 */
+	public long getSnapshotTimestamp();
+	
+	/**
+	 * Returns the measurement keys of the loops with measurements
+	 * @return
+	 */
+	public String[] getKeys();
+	
+	/**
+	 * Returns the total loop iterations counted over all workload sizes
+	 * @return
+	 */
+	public long getTotalCount();
+	
+	/**
+	 * Returns the total loop time (in nanoseconds) over all workload sizes
+	 * @return
+	 */
+	public long getTotalTime();
+	
+	/**
+	 * Returns the iterations counted for the loop with the given key over all workload sizes
+	 * @param key
+	 * @return
+	 */
+	public long getCount(String key);
+	
+	/**
+	 * Returns the time (in nanoseconds) of the loop with the given key over all workload sizes
+	 * @param key
+	 * @return
+	 */
+	public long getTime(String key);
+	
+	/**
+	 * Returns the iterations per second of the loop with the given key between the last two snapshots
+	 * @param key
+	 * @return
+	 */
+	public double getCountRate(String key);
+	
+	/**
+	 * Returns the nanoseconds of loop time per second of the loop with the
+	 * given key between the last two snapshots
+	 * @param key
+	 * @return
+	 */
+	public double getTimeRate(String key);
+	
+	/**
+	 * Returns the latest snapshot as JSON, with the totals, rates and per-size values of each loop
+	 * @return
+	 */
+	public String getSnapshot();
+	
+}
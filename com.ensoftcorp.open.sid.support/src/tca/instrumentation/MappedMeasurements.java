@@ -0,0 +1,165 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persists the measurements of a probe into a memory mapped file while the 
+ * workload runs, so the measurements survive if the process hangs, runs out 
+ * of memory, or is killed. The mapped pages belong to the operating system, 
+ * so everything flushed before the process dies is recoverable, and the file
+ * can be read live with {@link MappedMeasurementsReader}.
+ * 
+ * The file is laid out as a fixed header, a directory of workload sizes, and a
+ * dense block of long cells per workload size indexed by measurement key ID.
+ * A background thread periodically copies a snapshot of the probe's measurements
+ * into the region. Each copy is bracketed by a sequence number that is odd while 
+ * the copy is in progress, so readers can detect torn reads.
+ */
+public class MappedMeasurements {
+
+	static final int MAGIC = 0x5443414D; // TCAM
+	static final int VERSION = 1;
+	
+	// header offsets
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int MAX_KEYS_OFFSET = 8;
+	static final int MAX_SIZES_OFFSET = 12;
+	static final int SIZE_COUNT_OFFSET = 16;
+	static final int FLAGS_OFFSET = 20;
+	static final int SEQUENCE_OFFSET = 24;
+	static final int TIMESTAMP_OFFSET = 32;
+	static final int HEADER_LENGTH = 64;
+	
+	// header flags
+	static final int FLAG_TRUNCATED = 1; // some keys or sizes did not fit in the region
+	static final int FLAG_CLOSED = 2; // the writer was closed normally
+	
+	public static final int DEFAULT_MAX_KEYS = 4096;
+	public static final int DEFAULT_MAX_SIZES = 1024;
+	public static final long DEFAULT_FLUSH_INTERVAL = 500; // milliseconds
+	
+	private final MeasurementProbe probe;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int maxKeys;
+	private final int maxSizes;
+	private long sequence = 0;
+	private int flags = 0;
+	private volatile boolean closed = false;
+	private final Thread flusher;
+	
+	private MappedMeasurements(File outputFile, MeasurementProbe probe, int maxKeys, int maxSizes, final long flushInterval) throws IOException {
+		this.probe = probe;
+		this.maxKeys = maxKeys;
+		this.maxSizes = maxSizes;
+		long length = getCellsOffset(maxSizes) + ((long) maxSizes * maxKeys * 8);
+		if(length > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Mapped region of " + maxKeys + " keys and " + maxSizes + " sizes exceeds 2GB");
+		}
+		this.file = new RandomAccessFile(outputFile, "rw");
+		file.setLength(0); // clear any previous run
+		file.setLength(length);
+		this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(VERSION_OFFSET, VERSION);
+		buffer.putInt(MAX_KEYS_OFFSET, maxKeys);
+		buffer.putInt(MAX_SIZES_OFFSET, maxSizes);
+		
+		flusher = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while(!closed){
+					try {
+						Thread.sleep(flushInterval);
+					} catch (InterruptedException e) {}
+					if(!closed){
+						flush();
+					}
+				}
+			}
+		}, "TCA Mapped Measurements");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+	
+	/**
+	 * Opens a memory mapped measurements file for the given probe with the default capacity and flush interval
+	 * @param outputFile
+	 * @param probe
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedMeasurements open(File outputFile, MeasurementProbe probe) throws IOException {
+		return open(outputFile, probe, DEFAULT_MAX_KEYS, DEFAULT_MAX_SIZES, DEFAULT_FLUSH_INTERVAL);
+	}
+	
+	/**
+	 * Opens a memory mapped measurements file for the given probe
+	 * @param outputFile The mapped file (any previous content is replaced)
+	 * @param probe The probe to persist
+	 * @param maxKeys The number of measurement key IDs reserved in the region
+	 * @param maxSizes The number of workload sizes reserved in the region
+	 * @param flushInterval The milliseconds between flushes
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedMeasurements open(File outputFile, MeasurementProbe probe, int maxKeys, int maxSizes, long flushInterval) throws IOException {
+		return new MappedMeasurements(outputFile, probe, maxKeys, maxSizes, flushInterval);
+	}
+	
+	static long getCellsOffset(int maxSizes){
+		long offset = HEADER_LENGTH + ((long) maxSizes * 4);
+		return (offset + 7) & ~7L; // align the cells to longs
+	}
+	
+	/**
+	 * Copies a snapshot of the probe's measurements into the mapped region
+	 */
+	public synchronized void flush(){
+		MeasurementTable table = probe.getMeasurements();
+		buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+		int sizeCount = Math.min(table.getSizeCount(), maxSizes);
+		int keyCount = Math.min(table.getKeyCount(), maxKeys);
+		if(sizeCount < table.getSizeCount()){
+			flags |= FLAG_TRUNCATED;
+		}
+		long cellsOffset = getCellsOffset(maxSizes);
+		for(int sizeIndex=0; sizeIndex<sizeCount; sizeIndex++){
+			buffer.putInt(HEADER_LENGTH + (sizeIndex * 4), table.getSize(sizeIndex));
+			long[] column = table.getColumn(sizeIndex);
+			int columnOffset = (int) (cellsOffset + ((long) sizeIndex * maxKeys * 8));
+			for(int id=0; id<column.length; id++){
+				if(id < keyCount){
+					buffer.putLong(columnOffset + (id * 8), column[id]);
+				} else if(column[id] != 0){
+					flags |= FLAG_TRUNCATED;
+				}
+			}
+		}
+		buffer.putInt(SIZE_COUNT_OFFSET, sizeCount);
+		buffer.putInt(FLAGS_OFFSET, flags);
+		buffer.putLong(TIMESTAMP_OFFSET, System.currentTimeMillis());
+		buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+	}
+	
+	/**
+	 * Stops the background flushes, writes a final flush and marks the file as closed
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if(!closed){
+			closed = true;
+			flusher.interrupt();
+			flags |= FLAG_CLOSED;
+			flush();
+			buffer.force();
+			file.close();
+		}
+	}
+	
+}
@@ -0,0 +1,139 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the measurements persisted by {@link MappedMeasurements}, either live
+ * while the instrumented program runs or after the process has died
+ * 
+ * Usage: MappedMeasurementsReader <file> [tail interval milliseconds]
+ * Prints the measurements as CSV in the format KEY,WORKLOAD_SIZE,COUNT, key names
+ * are resolved with the probe manifest (see {@link ProbeManifest}).
+ */
+public class MappedMeasurementsReader {
+
+	private static final int MAX_RETRIES = 100;
+	
+	private final MappedByteBuffer buffer;
+	private boolean torn = false;
+	private int flags = 0;
+	private long timestamp = 0;
+	
+	public MappedMeasurementsReader(File inputFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close(); // the mapping remains valid after the file is closed
+		}
+		if(buffer.capacity() < MappedMeasurements.HEADER_LENGTH 
+				|| buffer.getInt(MappedMeasurements.MAGIC_OFFSET) != MappedMeasurements.MAGIC){
+			throw new IOException(inputFile.getName() + " is not a mapped measurements file");
+		}
+		if(buffer.getInt(MappedMeasurements.VERSION_OFFSET) != MappedMeasurements.VERSION){
+			throw new IOException("Unsupported mapped measurements version " + buffer.getInt(MappedMeasurements.VERSION_OFFSET));
+		}
+	}
+	
+	/**
+	 * Reads a consistent copy of the measurements, if the writer died in the middle
+	 * of a flush the last (torn) copy is returned and isTorn() is true
+	 * @return
+	 */
+	public MeasurementTable read(){
+		for(int attempt=0; ; attempt++){
+			long sequence = buffer.getLong(MappedMeasurements.SEQUENCE_OFFSET);
+			MeasurementTable table = readCells();
+			flags = buffer.getInt(MappedMeasurements.FLAGS_OFFSET);
+			timestamp = buffer.getLong(MappedMeasurements.TIMESTAMP_OFFSET);
+			boolean consistent = (sequence % 2 == 0) && sequence == buffer.getLong(MappedMeasurements.SEQUENCE_OFFSET);
+			if(consistent || attempt >= MAX_RETRIES){
+				torn = !consistent;
+				return table;
+			}
+			Thread.yield();
+		}
+	}
+	
+	private MeasurementTable readCells(){
+		MeasurementTable table = new MeasurementTable();
+		int maxKeys = buffer.getInt(MappedMeasurements.MAX_KEYS_OFFSET);
+		int maxSizes = buffer.getInt(MappedMeasurements.MAX_SIZES_OFFSET);
+		int sizeCount = Math.min(buffer.getInt(MappedMeasurements.SIZE_COUNT_OFFSET), maxSizes);
+		long cellsOffset = MappedMeasurements.getCellsOffset(maxSizes);
+		for(int sizeIndex=0; sizeIndex<sizeCount; sizeIndex++){
+			int size = buffer.getInt(MappedMeasurements.HEADER_LENGTH + (sizeIndex * 4));
+			int tableSizeIndex = table.addSize(size);
+			int columnOffset = (int) (cellsOffset + ((long) sizeIndex * maxKeys * 8));
+			for(int id=0; id<maxKeys; id++){
+				long value = buffer.getLong(columnOffset + (id * 8));
+				if(value != 0){
+					table.add(id, tableSizeIndex, value);
+				}
+			}
+		}
+		return table;
+	}
+	
+	public boolean isTorn(){
+		return torn;
+	}
+	
+	public boolean isTruncated(){
+		return (flags & MappedMeasurements.FLAG_TRUNCATED) != 0;
+	}
+	
+	public boolean isClosed(){
+		return (flags & MappedMeasurements.FLAG_CLOSED) != 0;
+	}
+	
+	/**
+	 * Returns the time of the last flush in milliseconds since the epoch
+	 * @return
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+	
+	public static void print(MeasurementTable table, PrintStream out){
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		out.println("KEY,WORKLOAD_SIZE,COUNT");
+		for(int id=0; id<table.getKeyCount(); id++){
+			for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+				long value = table.get(id, sizeIndex);
+				if(value != 0){
+					out.println(manifest.getKey(id) + "," + table.getSize(sizeIndex) + "," + value);
+				}
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 1){
+			System.err.println("Usage: MappedMeasurementsReader <file> [tail interval milliseconds]");
+			System.exit(1);
+		}
+		MappedMeasurementsReader reader = new MappedMeasurementsReader(new File(args[0]));
+		long tailInterval = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		while(true){
+			MeasurementTable table = reader.read();
+			print(table, System.out);
+			if(reader.isTorn()){
+				System.err.println("Warning: the writer stopped in the middle of a flush, the measurements may be inconsistent");
+			}
+			if(reader.isTruncated()){
+				System.err.println("Warning: some measurements did not fit in the mapped region");
+			}
+			if(tailInterval <= 0 || reader.isClosed()){
+				break;
+			}
+			Thread.sleep(tailInterval);
+		}
+	}
+	
+}
@@ -0,0 +1,104 @@
+package tca.instrumentation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Streams the measurements of a binary file written by {@link MeasurementBinaryWriter}
+ * 
+ * Usage:
+ * 	while(reader.next()){ reader.getKey(); reader.getSize(); reader.getValue(); }
+ */
+public class MeasurementBinaryReader implements MeasurementReader {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final DataInputStream input;
+	private final String valueName;
+	private final ArrayList<String> dictionary = new ArrayList<String>();
+	
+	// the remaining cells of the current row
+	private long remainingCells = 0;
+	private boolean finished = false;
+	
+	private String key;
+	private int size;
+	private long value;
+	
+	public MeasurementBinaryReader(File inputFile) throws IOException {
+		input = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile), BUFFER_SIZE));
+		try {
+			if(input.readInt() != MeasurementBinaryWriter.MAGIC){
+				throw new IOException(inputFile.getName() + " is not a binary measurement file");
+			}
+			int version = input.readByte();
+			if(version != MeasurementBinaryWriter.VERSION){
+				throw new IOException("Unsupported binary measurement file version " + version);
+			}
+			valueName = input.readUTF();
+		} catch (IOException e){
+			input.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the name of the value column (for example COUNT)
+	 * @return
+	 */
+	public String getValueName(){
+		return valueName;
+	}
+	
+	@Override
+	public boolean next() throws IOException {
+		while(remainingCells == 0){
+			if(finished){
+				return false;
+			}
+			long reference = LatencyHistogram.readVarLong(input);
+			if(reference == 0){
+				finished = true;
+				return false;
+			}
+			if(reference == dictionary.size() + 1){
+				dictionary.add(input.readUTF());
+			} else if(reference > dictionary.size()){
+				throw new IOException("Malformed key reference " + reference);
+			}
+			key = dictionary.get((int) reference - 1);
+			remainingCells = LatencyHistogram.readVarLong(input);
+			size = 0;
+			value = 0;
+		}
+		size += (int) MeasurementBinaryWriter.unZigZag(LatencyHistogram.readVarLong(input));
+		value += MeasurementBinaryWriter.unZigZag(LatencyHistogram.readVarLong(input));
+		remainingCells--;
+		return true;
+	}
+	
+	@Override
+	public String getKey(){
+		return key;
+	}
+	
+	@Override
+	public int getSize(){
+		return size;
+	}
+	
+	@Override
+	public long getValue(){
+		return value;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+	
+}
@@ -0,0 +1,119 @@
+package tca.instrumentation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Streams measurements to a compact binary file (conventionally *.tcab)
+ * 
+ * The measurements of each key are written as a row: a reference to the key in a
+ * dictionary of the keys written so far (the key itself is only written the first
+ * time), followed by the row's (workload size, value) cells as zig zag variable length
+ * deltas of the previous cell. Workload sizes usually grow steadily and measurements
+ * grow with them, so most cells take a few bytes instead of the tens of characters
+ * of a CSV line.
+ * 
+ * Format:
+ * 	int magic, byte version, UTF value name
+ * 	rows of: varint key reference + 1, [UTF key if new], varint cells, cells of: varint size delta, varint value delta
+ * 	varint 0 (end of file)
+ */
+public class MeasurementBinaryWriter implements MeasurementWriter {
+	
+	public static final int MAGIC = 0x54434142; // TCAB
+	public static final int VERSION = 1;
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final DataOutputStream output;
+	private final HashMap<String,Integer> dictionary = new HashMap<String,Integer>();
+	
+	// the cells of the row being written
+	private String rowKey = null;
+	private int[] rowSizes = new int[64];
+	private long[] rowValues = new long[64];
+	private int rowLength = 0;
+	
+	/**
+	 * Creates a binary measurement file with the value name COUNT
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public MeasurementBinaryWriter(File outputFile) throws IOException {
+		this(outputFile, "COUNT");
+	}
+	
+	/**
+	 * Creates a binary measurement file with the given value name
+	 * @param outputFile
+	 * @param valueName
+	 * @throws IOException
+	 */
+	public MeasurementBinaryWriter(File outputFile, String valueName) throws IOException {
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE));
+		output.writeInt(MAGIC);
+		output.writeByte(VERSION);
+		output.writeUTF(valueName);
+	}
+	
+	@Override
+	public void write(String key, int size, long value) throws IOException {
+		if(rowKey != null && !rowKey.equals(key)){
+			writeRow();
+		}
+		rowKey = key;
+		if(rowLength == rowSizes.length){
+			rowSizes = Arrays.copyOf(rowSizes, rowLength * 2);
+			rowValues = Arrays.copyOf(rowValues, rowLength * 2);
+		}
+		rowSizes[rowLength] = size;
+		rowValues[rowLength] = value;
+		rowLength++;
+	}
+	
+	private void writeRow() throws IOException {
+		Integer reference = dictionary.get(rowKey);
+		if(reference == null){
+			reference = dictionary.size();
+			dictionary.put(rowKey, reference);
+			LatencyHistogram.writeVarLong(output, reference + 1);
+			output.writeUTF(rowKey);
+		} else {
+			LatencyHistogram.writeVarLong(output, reference + 1);
+		}
+		LatencyHistogram.writeVarLong(output, rowLength);
+		long previousSize = 0;
+		long previousValue = 0;
+		for(int i=0; i<rowLength; i++){
+			LatencyHistogram.writeVarLong(output, zigZag(rowSizes[i] - previousSize));
+			LatencyHistogram.writeVarLong(output, zigZag(rowValues[i] - previousValue));
+			previousSize = rowSizes[i];
+			previousValue = rowValues[i];
+		}
+		rowKey = null;
+		rowLength = 0;
+	}
+	
+	static long zigZag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	static long unZigZag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(rowKey != null){
+			writeRow();
+		}
+		LatencyHistogram.writeVarLong(output, 0);
+		output.close();
+	}
+	
+}
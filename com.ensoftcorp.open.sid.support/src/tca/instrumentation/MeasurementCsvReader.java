@@ -0,0 +1,91 @@
+package tca.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Streams the measurements of a CSV file written by {@link MeasurementCsvWriter}
+ * (or {@link MeasurementProbe#saveKeyMeasurements(File)}) one line at a time
+ * 
+ * Usage:
+ * 	while(reader.next()){ reader.getKey(); reader.getSize(); reader.getValue(); }
+ */
+public class MeasurementCsvReader implements MeasurementReader {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final BufferedReader input;
+	private final String valueName;
+	private int lineNumber = 1;
+	
+	private String key;
+	private int size;
+	private long value;
+	
+	public MeasurementCsvReader(File inputFile) throws IOException {
+		input = new BufferedReader(new FileReader(inputFile), BUFFER_SIZE);
+		String header = input.readLine();
+		if(header == null || !header.startsWith("KEY,WORKLOAD_SIZE,")){
+			input.close();
+			throw new IOException(inputFile.getName() + " is not a measurement CSV file");
+		}
+		valueName = header.substring("KEY,WORKLOAD_SIZE,".length());
+	}
+	
+	/**
+	 * Returns the name of the value column (for example COUNT)
+	 * @return
+	 */
+	public String getValueName(){
+		return valueName;
+	}
+	
+	@Override
+	public boolean next() throws IOException {
+		String line = input.readLine();
+		while(line != null && line.isEmpty()){
+			line = input.readLine();
+		}
+		if(line == null){
+			return false;
+		}
+		lineNumber++;
+		// keys may contain commas, the size and value are the last two columns
+		int valueComma = line.lastIndexOf(',');
+		int sizeComma = valueComma > 0 ? line.lastIndexOf(',', valueComma - 1) : -1;
+		if(sizeComma < 0){
+			throw new IOException("Malformed measurement on line " + lineNumber);
+		}
+		try {
+			key = line.substring(0, sizeComma);
+			size = Integer.parseInt(line.substring(sizeComma + 1, valueComma));
+			value = Long.parseLong(line.substring(valueComma + 1));
+		} catch (NumberFormatException e){
+			throw new IOException("Malformed measurement on line " + lineNumber, e);
+		}
+		return true;
+	}
+	
+	@Override
+	public String getKey(){
+		return key;
+	}
+	
+	@Override
+	public int getSize(){
+		return size;
+	}
+	
+	@Override
+	public long getValue(){
+		return value;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+	
+}
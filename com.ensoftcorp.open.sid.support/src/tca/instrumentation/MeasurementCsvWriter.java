@@ -0,0 +1,51 @@
+package tca.instrumentation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Streams measurements to a CSV file in the format KEY,WORKLOAD_SIZE,&lt;value name&gt;
+ * through a large buffer, reusing a single line buffer so no strings are built per row
+ */
+public class MeasurementCsvWriter implements MeasurementWriter {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final BufferedWriter output;
+	private final StringBuilder line = new StringBuilder();
+	
+	/**
+	 * Creates a CSV file with the header KEY,WORKLOAD_SIZE,COUNT
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public MeasurementCsvWriter(File outputFile) throws IOException {
+		this(outputFile, "COUNT");
+	}
+	
+	/**
+	 * Creates a CSV file with the header KEY,WORKLOAD_SIZE,&lt;valueName&gt;
+	 * @param outputFile
+	 * @param valueName
+	 * @throws IOException
+	 */
+	public MeasurementCsvWriter(File outputFile, String valueName) throws IOException {
+		output = new BufferedWriter(new FileWriter(outputFile), BUFFER_SIZE);
+		output.write("KEY,WORKLOAD_SIZE," + valueName + "\n");
+	}
+	
+	@Override
+	public void write(String key, int size, long value) throws IOException {
+		line.setLength(0);
+		line.append(key).append(',').append(size).append(',').append(value).append('\n');
+		output.append(line);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+	
+}
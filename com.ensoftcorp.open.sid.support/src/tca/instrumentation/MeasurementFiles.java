@@ -0,0 +1,106 @@
+package tca.instrumentation;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Opens measurement writers and readers by file format, files ending in .tcab are
+ * written in the binary format and all other files as CSV, readers detect the format
+ * 
+ * Converts between the formats with: 
+ * 	java tca.instrumentation.MeasurementFiles &lt;input file&gt; &lt;output file&gt;
+ */
+public class MeasurementFiles {
+	
+	public static final String BINARY_EXTENSION = ".tcab";
+	
+	private MeasurementFiles(){}
+	
+	/**
+	 * Opens a writer in the format of the file's extension
+	 * @param outputFile
+	 * @param valueName The name of the value column (for example COUNT)
+	 * @return
+	 * @throws IOException
+	 */
+	public static MeasurementWriter openWriter(File outputFile, String valueName) throws IOException {
+		if(outputFile.getName().endsWith(BINARY_EXTENSION)){
+			return new MeasurementBinaryWriter(outputFile, valueName);
+		} else {
+			return new MeasurementCsvWriter(outputFile, valueName);
+		}
+	}
+	
+	/**
+	 * Opens a reader in the format of the file's contents
+	 * @param inputFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static MeasurementReader openReader(File inputFile) throws IOException {
+		if(isBinary(inputFile)){
+			return new MeasurementBinaryReader(inputFile);
+		} else {
+			return new MeasurementCsvReader(inputFile);
+		}
+	}
+	
+	private static boolean isBinary(File inputFile) throws IOException {
+		DataInputStream input = new DataInputStream(new FileInputStream(inputFile));
+		try {
+			return inputFile.length() >= 4 && input.readInt() == MeasurementBinaryWriter.MAGIC;
+		} finally {
+			input.close();
+		}
+	}
+	
+	private static String getValueName(MeasurementReader reader){
+		if(reader instanceof MeasurementBinaryReader){
+			return ((MeasurementBinaryReader) reader).getValueName();
+		} else if(reader instanceof MeasurementCsvReader){
+			return ((MeasurementCsvReader) reader).getValueName();
+		} else {
+			return "COUNT";
+		}
+	}
+	
+	/**
+	 * Copies all of the measurements of the input file to the output file
+	 * @param inputFile
+	 * @param outputFile
+	 * @return The number of measurements copied
+	 * @throws IOException
+	 */
+	public static long convert(File inputFile, File outputFile) throws IOException {
+		MeasurementReader reader = openReader(inputFile);
+		try {
+			MeasurementWriter writer = openWriter(outputFile, getValueName(reader));
+			try {
+				long measurements = 0;
+				while(reader.next()){
+					writer.write(reader.getKey(), reader.getSize(), reader.getValue());
+					measurements++;
+				}
+				return measurements;
+			} finally {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2){
+			System.err.println("Usage: MeasurementFiles <input file> <output file (.tcab for binary, otherwise csv)>");
+			System.exit(1);
+		}
+		File inputFile = new File(args[0]);
+		File outputFile = new File(args[1]);
+		long measurements = convert(inputFile, outputFile);
+		System.out.println("Converted " + measurements + " measurements (" + inputFile.length() + " bytes to " + outputFile.length() + " bytes)");
+	}
+	
+}
@@ -1,41 +1,122 @@
 package tca.instrumentation;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 
 public abstract class MeasurementProbe implements Probe {
 
-	protected Integer currentSize = 1;
-	protected HashMap<Integer, HashMap<String, Long>> measurements = new HashMap<Integer, HashMap<String, Long>>();
-
+	// the size of workloads run outside of a WorkloadScope
+	protected volatile int currentSize = 1;
+	
+	// measurements indexed by workload size and measurement key ID
+	protected ProbeCells measurements = new ProbeCells();
+	
 	public abstract void setSize(int size);
 	
+	/**
+	 * Returns the workload size to attribute a probe hit on the calling thread to
+	 * @return
+	 */
+	protected final int getCurrentSize(){
+		return WorkloadScope.getSize(currentSize);
+	}
+	
+	/**
+	 * Returns a snapshot of all the measurements, key IDs can be 
+	 * resolved to key names with the {@link ProbeManifest}
+	 * 
+	 * Each snapshot waits up to a millisecond for the running threads to retire
+	 * their cells, as do the accessors below which each take their own snapshot,
+	 * so to read several sizes or keys take one snapshot and read the table.
+	 * @return
+	 */
+	public MeasurementTable getMeasurements(){
+		return measurements.snapshot();
+	}
+	
+	/**
+	 * Returns the measurements added since the previous call (or since the probe was
+	 * created), for periodic exporters and per interval rates on long runs. The 
+	 * probes keep running while the interval is taken.
+	 * @return
+	 */
+	public MeasurementTable getIntervalMeasurements(){
+		return measurements.interval();
+	}
+	
+	/**
+	 * Returns the workload sizes that have measurements (takes a snapshot)
+	 * @return
+	 */
+	public Set<Integer> getSizes(){
+		MeasurementTable table = getMeasurements();
+		TreeSet<Integer> sizes = new TreeSet<Integer>();
+		for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+			sizes.add(table.getSize(sizeIndex));
+		}
+		return sizes;
+	}
+	
+	/**
+	 * Returns the measurements of the given size by key name (takes a snapshot)
+	 * @param size
+	 * @return
+	 */
 	public HashMap<String, Long> getMeasurementForSize(Integer size){
-		if(!measurements.containsKey(size)){
-			measurements.put(size, new HashMap<String, Long>());
+		HashMap<String, Long> result = new HashMap<String, Long>();
+		MeasurementTable table = getMeasurements();
+		int sizeIndex = table.getSizeIndex(size);
+		if(sizeIndex != -1){
+			long[] column = table.getColumn(sizeIndex);
+			ProbeManifest manifest = ProbeManifest.getInstance();
+			for(int id=0; id<column.length; id++){
+				if(column[id] != 0){
+					result.put(manifest.getKey(id), column[id]);
+				}
+			}
 		}
-		return measurements.get(size);
+		return result;
 	}
 	
+	/**
+	 * Returns the measurements of the given key by workload size (takes a snapshot)
+	 * @param key
+	 * @return
+	 */
 	public HashMap<Integer, Long> getKeyMeasurements(String key){
 		HashMap<Integer,Long> result = new HashMap<Integer,Long>();
-		for(Entry<Integer, HashMap<String, Long>> entry : measurements.entrySet()){
-			if(entry.getValue().containsKey(key)){
-				result.put(entry.getKey(), entry.getValue().get(key));
+		int id = ProbeManifest.getInstance().findId(key);
+		if(id < 0){
+			return result;
+		}
+		MeasurementTable table = getMeasurements();
+		for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+			long value = table.get(id, sizeIndex);
+			if(value != 0){
+				result.put(table.getSize(sizeIndex), value);
 			}
 		}
 		return result;
 	}
 	
+	/**
+	 * Returns the keys that have measurements (takes a snapshot)
+	 * @return
+	 */
 	public HashSet<String> getKeys(){
 		HashSet<String> keys = new HashSet<String>();
-		for(Entry<Integer, HashMap<String, Long>> entry : measurements.entrySet()){
-			for(String key : entry.getValue().keySet()){
-				keys.add(key);
+		MeasurementTable table = getMeasurements();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		for(int id=0; id<table.getKeyCount(); id++){
+			for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+				if(table.get(id, sizeIndex) != 0){
+					keys.add(manifest.getKey(id));
+					break;
+				}
 			}
 		}
 		return keys;
@@ -43,19 +124,64 @@ public abstract class MeasurementProbe implements Probe {
 
 	/**
 	 * Writes a CSV file of all the key measurements in the format
-	 * KEY,WORKLOAD_SIZE,COUNT
+	 * KEY,WORKLOAD_SIZE,COUNT (or a binary file if the file name ends in .tcab)
 	 * @param outputFile
 	 * @throws IOException  
 	 */
 	public void saveKeyMeasurements(File outputFile) throws IOException {
-		FileWriter fw = new FileWriter(outputFile);
-		fw.write("KEY,WORKLOAD_SIZE,COUNT\n");
-		for(String key : getKeys()){
-			for(Entry<Integer, Long> keyMeasurement : getKeyMeasurements(key).entrySet()){
-				fw.write(key + "," + keyMeasurement.getKey() + "," + keyMeasurement.getValue() + "\n");
+		saveKeyMeasurements(MeasurementFiles.openWriter(outputFile, "COUNT"));
+	}
+	
+	/**
+	 * Streams the non-zero measurements to the given writer grouped by key and closes it
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void saveKeyMeasurements(MeasurementWriter writer) throws IOException {
+		try {
+			MeasurementTable table = getMeasurements();
+			ProbeManifest manifest = ProbeManifest.getInstance();
+			for(int id=0; id<table.getKeyCount(); id++){
+				String key = null;
+				for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+					long value = table.get(id, sizeIndex);
+					if(value != 0){
+						if(key == null){
+							key = manifest.getKey(id);
+						}
+						writer.write(key, table.getSize(sizeIndex), value);
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Adds the measurements of a file written by {@link #saveKeyMeasurements(File)} 
+	 * (CSV or binary) to this probe, for merging measurements taken in other JVMs
+	 * @param inputFile
+	 * @throws IOException
+	 */
+	public void loadKeyMeasurements(File inputFile) throws IOException {
+		loadKeyMeasurements(MeasurementFiles.openReader(inputFile));
+	}
+	
+	/**
+	 * Adds all of the measurements of the given reader to this probe and closes it
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void loadKeyMeasurements(MeasurementReader reader) throws IOException {
+		try {
+			ProbeManifest manifest = ProbeManifest.getInstance();
+			while(reader.next()){
+				measurements.add(reader.getSize(), manifest.getId(reader.getKey()), reader.getValue());
 			}
+		} finally {
+			reader.close();
 		}
-		fw.close();
 	}
 	
 }
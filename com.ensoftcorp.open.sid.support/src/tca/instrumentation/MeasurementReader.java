@@ -0,0 +1,25 @@
+package tca.instrumentation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A streaming reader of (key, workload size, value) measurements, see 
+ * {@link MeasurementCsvReader} and {@link MeasurementBinaryReader}
+ */
+public interface MeasurementReader extends Closeable {
+	
+	/**
+	 * Advances to the next measurement
+	 * @return Returns false if there are no more measurements
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException;
+	
+	public String getKey();
+	
+	public int getSize();
+	
+	public long getValue();
+	
+}
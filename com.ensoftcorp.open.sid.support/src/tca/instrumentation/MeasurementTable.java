@@ -0,0 +1,211 @@
+package tca.instrumentation;
+
+import java.util.Arrays;
+
+/**
+ * A dense, columnar table of long measurements indexed by measurement key ID (row)
+ * and workload size (column)
+ * 
+ * Each workload size is a primitive long[] column indexed directly by key ID, and
+ * workload sizes are mapped to their column index with an open addressing hash table,
+ * so cell access is O(1) and never boxes. A key ID with no measurements reads as 0.
+ * 
+ * Tables are not thread safe, the probes keep one table per thread (see {@link ProbeCells})
+ * and merge them into a new table for reporting.
+ */
+public class MeasurementTable {
+
+	private static final int INITIAL_KEY_CAPACITY = 64;
+	private static final int INITIAL_SIZE_CAPACITY = 16;
+	
+	// workload sizes and their columns in the order the sizes were added
+	private int[] sizes = new int[INITIAL_SIZE_CAPACITY];
+	private long[][] columns = new long[INITIAL_SIZE_CAPACITY][];
+	private int sizeCount = 0;
+	private int keyCount = 0;
+	
+	// open addressing table of workload size to column index + 1 (0 is empty)
+	private int[] sizeIndices = new int[INITIAL_SIZE_CAPACITY * 2];
+	
+	/**
+	 * Returns the column index of the given workload size, or -1 if the size has no column
+	 * @param size
+	 * @return
+	 */
+	public int getSizeIndex(int size){
+		int mask = sizeIndices.length - 1;
+		for(int slot = hash(size) & mask; sizeIndices[slot] != 0; slot = (slot + 1) & mask){
+			int sizeIndex = sizeIndices[slot] - 1;
+			if(sizes[sizeIndex] == size){
+				return sizeIndex;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the column index of the given workload size, adding an empty column if needed
+	 * @param size
+	 * @return
+	 */
+	public int addSize(int size){
+		int sizeIndex = getSizeIndex(size);
+		if(sizeIndex != -1){
+			return sizeIndex;
+		}
+		if(sizeCount == sizes.length){
+			sizes = Arrays.copyOf(sizes, sizeCount * 2);
+			columns = Arrays.copyOf(columns, sizeCount * 2);
+		}
+		sizeIndex = sizeCount++;
+		sizes[sizeIndex] = size;
+		columns[sizeIndex] = new long[Math.max(keyCount, INITIAL_KEY_CAPACITY)];
+		if(sizeCount * 2 > sizeIndices.length){
+			rehash(sizeIndices.length * 2);
+		} else {
+			insertSizeIndex(sizeIndex);
+		}
+		return sizeIndex;
+	}
+	
+	private void rehash(int capacity){
+		sizeIndices = new int[capacity];
+		for(int sizeIndex=0; sizeIndex<sizeCount; sizeIndex++){
+			insertSizeIndex(sizeIndex);
+		}
+	}
+	
+	private void insertSizeIndex(int sizeIndex){
+		int mask = sizeIndices.length - 1;
+		int slot = hash(sizes[sizeIndex]) & mask;
+		while(sizeIndices[slot] != 0){
+			slot = (slot + 1) & mask;
+		}
+		sizeIndices[slot] = sizeIndex + 1;
+	}
+	
+	private static int hash(int size){
+		int h = size * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Returns the backing column of the given column index, indexed by key ID
+	 * The column may be longer than the number of keys and must not be modified
+	 * @param sizeIndex
+	 * @return
+	 */
+	public long[] getColumn(int sizeIndex){
+		return columns[sizeIndex];
+	}
+	
+	/**
+	 * Grows the column of the given column index to hold the given key ID and returns it
+	 * @param sizeIndex
+	 * @param id
+	 * @return
+	 */
+	public long[] growColumn(int sizeIndex, int id){
+		long[] column = columns[sizeIndex];
+		if(id >= column.length){
+			column = Arrays.copyOf(column, Math.max(column.length * 2, id + 1));
+			columns[sizeIndex] = column;
+		}
+		if(id >= keyCount){
+			keyCount = id + 1;
+		}
+		return column;
+	}
+	
+	public long get(int id, int sizeIndex){
+		long[] column = columns[sizeIndex];
+		return id < column.length ? column[id] : 0;
+	}
+	
+	public void add(int id, int sizeIndex, long value){
+		growColumn(sizeIndex, id)[id] += value;
+	}
+	
+	/**
+	 * Copies the row of the given key ID into the given buffer (indexed by column index)
+	 * @param id
+	 * @param row A buffer of at least getSizeCount() values
+	 * @return The given buffer
+	 */
+	public long[] getRow(int id, long[] row){
+		for(int sizeIndex=0; sizeIndex<sizeCount; sizeIndex++){
+			row[sizeIndex] = get(id, sizeIndex);
+		}
+		return row;
+	}
+	
+	public long getColumnSum(int sizeIndex){
+		long sum = 0;
+		for(long value : columns[sizeIndex]){
+			sum += value;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Adds all of the cells of the given table to this table
+	 * @param table
+	 */
+	public void addAll(MeasurementTable table){
+		for(int otherSizeIndex=0; otherSizeIndex<table.sizeCount; otherSizeIndex++){
+			long[] otherColumn = table.columns[otherSizeIndex];
+			int sizeIndex = addSize(table.sizes[otherSizeIndex]);
+			long[] column = growColumn(sizeIndex, otherColumn.length - 1);
+			for(int id=0; id<otherColumn.length; id++){
+				column[id] += otherColumn[id];
+			}
+		}
+	}
+	
+	/**
+	 * Subtracts all of the cells of the given table from this table
+	 * @param table
+	 */
+	public void subtractAll(MeasurementTable table){
+		for(int otherSizeIndex=0; otherSizeIndex<table.sizeCount; otherSizeIndex++){
+			long[] otherColumn = table.columns[otherSizeIndex];
+			int sizeIndex = addSize(table.sizes[otherSizeIndex]);
+			long[] column = growColumn(sizeIndex, otherColumn.length - 1);
+			for(int id=0; id<otherColumn.length; id++){
+				column[id] -= otherColumn[id];
+			}
+		}
+	}
+	
+	/**
+	 * Returns a new table with the same cells as this table
+	 * @return
+	 */
+	public MeasurementTable copy(){
+		MeasurementTable result = new MeasurementTable();
+		result.addAll(this);
+		return result;
+	}
+	
+	public int getSizeCount(){
+		return sizeCount;
+	}
+	
+	public int getSize(int sizeIndex){
+		return sizes[sizeIndex];
+	}
+	
+	/**
+	 * Returns an upper bound of the key IDs in the table, key IDs below this bound
+	 * without measurements read as 0
+	 * @return
+	 */
+	public int getKeyCount(){
+		int keyCount = this.keyCount;
+		for(int sizeIndex=0; sizeIndex<sizeCount; sizeIndex++){
+			keyCount = Math.max(keyCount, columns[sizeIndex].length);
+		}
+		return keyCount;
+	}
+	
+}
@@ -0,0 +1,29 @@
+package tca.instrumentation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A streaming writer of (key, workload size, value) measurements, see 
+ * {@link MeasurementCsvWriter} and {@link MeasurementBinaryWriter}
+ */
+public interface MeasurementWriter extends Closeable {
+	
+	/**
+	 * Writes a measurement, writers are most compact when the measurements 
+	 * of each key are written together
+	 * @param key
+	 * @param size
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(String key, int size, long value) throws IOException;
+	
+	/**
+	 * Flushes the buffered measurements and closes the file
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException;
+	
+}
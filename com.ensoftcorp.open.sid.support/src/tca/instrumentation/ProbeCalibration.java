@@ -0,0 +1,348 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Measures the per-call overhead of each probe type on the current JVM and machine
+ * 
+ * The probe paths are exercised on private probe instances, so calibrating does not
+ * add to the program's measurements. Each overhead is the minimum over several 
+ * rounds (after a warmup so the probes are JIT compiled) of the mean cost per call.
+ *
+ * Every probe inserted at a loop header is calibrated, and the private instances are
+ * configured like the shared probes (the timer's CPU time, exclusive time, histograms
+ * and sampling, and whether the allocation, trip count and context probes are enabled),
+ * so the probes should be configured before calibrating. GC pause tracking does no work
+ * in the probes.
+ *
+ * Besides each probe on its own, the sequences of probes that the instrumentation inserts
+ * are calibrated as they run: the probes at a loop header (with the workload stop check of
+ * each probe), the probes at a loop's entry and exits, and the probes at a method's entry
+ * and exits.
+ */
+public class ProbeCalibration {
+
+	private static final int WARMUP_CALLS = 1 << 18;
+	private static final int CALLS = 1 << 20;
+	private static final int ROUNDS = 5;
+	
+	private static volatile ProbeCalibration calibration = null;
+	
+	private double counterOverhead;
+	private double timerOverhead;
+	private double timerIntervalOverhead;
+	private double traceOverhead;
+	private double allocationOverhead;
+	private double tripCountOverhead;
+	private double contextOverhead;
+	private double iterationOverhead;
+	private double executionOverhead;
+	private double invocationOverhead;
+	
+	private ProbeCalibration(){}
+	
+	/**
+	 * Private instances of the probes inserted at loops and methods, configured like the shared probes
+	 */
+	private static class InstrumentProbes {
+		private final TCA_Counter counter = new TCA_Counter();
+		private final TCA_Timer timer = new TCA_Timer();
+		private final TCA_Trace trace = new TCA_Trace();
+		private final TCA_Allocation allocation = new TCA_Allocation();
+		private final TCA_TripCount tripCount = new TCA_TripCount();
+		private final TCA_Context context = new TCA_Context();
+		private final TCA_Invocation invocation = new TCA_Invocation();
+		
+		private InstrumentProbes(){
+			timer.configureLike(TCA_Timer.getInstance());
+			allocation.enable(TCA_Allocation.getInstance().isEnabled());
+			tripCount.enable(TCA_TripCount.getInstance().isEnabled());
+			context.enable(TCA_Context.getInstance().isEnabled());
+		}
+		
+		// the probes at a loop header, in the order they are inserted
+		private void iterate(int id){
+			WorkloadStop.check();
+			counter.count(id);
+			WorkloadStop.check();
+			timer.iterate(id);
+			WorkloadStop.check();
+			trace.record(id);
+			WorkloadStop.check();
+			allocation.iterate(id);
+			WorkloadStop.check();
+			tripCount.trip(id);
+			context.visitLoop(id);
+		}
+		
+		// the probes at a loop's entry
+		private void enterLoop(int id){
+			tripCount.start(id);
+		}
+		
+		// the probes at a loop's exits, in the order they are inserted
+		private void exitLoop(int id){
+			timer.stop(id);
+			trace.record(~id);
+			allocation.stop(id);
+			tripCount.end(id);
+			context.exitLoopFrame(id);
+		}
+		
+		// the probes at a method's entry and exits
+		private void enterMethod(int id){
+			invocation.push(id);
+			context.enterMethod(id);
+		}
+		
+		private void exitMethod(int id){
+			invocation.pop(id);
+			context.exitFrame(id);
+		}
+	}
+	
+	/**
+	 * Returns the last calibration, or null if the probes were not calibrated
+	 * @return
+	 */
+	public static ProbeCalibration getCalibration(){
+		return calibration;
+	}
+	
+	/**
+	 * Calibrates the probes, this takes about a second and should be done at
+	 * startup after the probes are configured and before the workloads run
+	 * @return
+	 */
+	public static ProbeCalibration calibrate(){
+		ProbeCalibration result = new ProbeCalibration();
+		result.counterOverhead = Double.MAX_VALUE;
+		result.timerOverhead = Double.MAX_VALUE;
+		result.timerIntervalOverhead = Double.MAX_VALUE;
+		result.traceOverhead = Double.MAX_VALUE;
+		result.allocationOverhead = Double.MAX_VALUE;
+		result.tripCountOverhead = Double.MAX_VALUE;
+		result.contextOverhead = Double.MAX_VALUE;
+		result.iterationOverhead = Double.MAX_VALUE;
+		result.executionOverhead = Double.MAX_VALUE;
+		result.invocationOverhead = Double.MAX_VALUE;
+		for(int round=0; round<=ROUNDS; round++){
+			int calls = round == 0 ? WARMUP_CALLS : CALLS;
+			
+			TCA_Counter counter = new TCA_Counter();
+			long start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				WorkloadStop.check();
+				counter.count(i & 63);
+			}
+			double counterCost = (double) (System.nanoTime() - start) / calls;
+			
+			// each header probe stops the previous interval and starts the next, the time 
+			// recorded by the timer for the empty intervals is the overhead inside each interval
+			TCA_Timer timer = new TCA_Timer();
+			timer.configureLike(TCA_Timer.getInstance());
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				WorkloadStop.check();
+				timer.iterate(0);
+			}
+			double timerCost = (double) (System.nanoTime() - start) / calls;
+			MeasurementTable intervals = timer.getMeasurements();
+			double intervalCost = (double) intervals.getColumnSum(0) / (calls - 1);
+			
+			TCA_Trace trace = new TCA_Trace();
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				WorkloadStop.check();
+				trace.record(i & 63);
+			}
+			double traceCost = (double) (System.nanoTime() - start) / calls;
+			
+			TCA_Allocation allocation = new TCA_Allocation();
+			allocation.enable(TCA_Allocation.getInstance().isEnabled());
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				WorkloadStop.check();
+				allocation.iterate(0);
+			}
+			double allocationCost = (double) (System.nanoTime() - start) / calls;
+			
+			TCA_TripCount tripCount = new TCA_TripCount();
+			tripCount.enable(TCA_TripCount.getInstance().isEnabled());
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				WorkloadStop.check();
+				tripCount.trip(0);
+			}
+			double tripCountCost = (double) (System.nanoTime() - start) / calls;
+			
+			TCA_Context context = new TCA_Context();
+			context.enable(TCA_Context.getInstance().isEnabled());
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				context.visitLoop(0);
+			}
+			double contextCost = (double) (System.nanoTime() - start) / calls;
+			
+			// the time recorded by the timer for the empty iterations of a loop is the
+			// overhead of all of the header probes inside each timed iteration
+			InstrumentProbes iterationProbes = new InstrumentProbes();
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				iterationProbes.iterate(0);
+			}
+			double iterationSequenceCost = (double) (System.nanoTime() - start) / calls;
+			double iterationCost = (double) iterationProbes.timer.getMeasurements().getColumnSum(0) / (calls - 1);
+			
+			// executions of a single iteration, less the cost of the header probes
+			InstrumentProbes executionProbes = new InstrumentProbes();
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				executionProbes.enterLoop(0);
+				executionProbes.iterate(0);
+				executionProbes.exitLoop(0);
+			}
+			double executionCost = Math.max(0, ((double) (System.nanoTime() - start) / calls) - iterationSequenceCost);
+			
+			InstrumentProbes invocationProbes = new InstrumentProbes();
+			start = System.nanoTime();
+			for(int i=0; i<calls; i++){
+				invocationProbes.enterMethod(0);
+				invocationProbes.exitMethod(0);
+			}
+			double invocationCost = (double) (System.nanoTime() - start) / calls;
+			
+			if(round > 0){
+				result.counterOverhead = Math.min(result.counterOverhead, counterCost);
+				result.timerOverhead = Math.min(result.timerOverhead, timerCost);
+				result.timerIntervalOverhead = Math.min(result.timerIntervalOverhead, intervalCost);
+				result.traceOverhead = Math.min(result.traceOverhead, traceCost);
+				result.allocationOverhead = Math.min(result.allocationOverhead, allocationCost);
+				result.tripCountOverhead = Math.min(result.tripCountOverhead, tripCountCost);
+				result.contextOverhead = Math.min(result.contextOverhead, contextCost);
+				result.iterationOverhead = Math.min(result.iterationOverhead, iterationCost);
+				result.executionOverhead = Math.min(result.executionOverhead, executionCost);
+				result.invocationOverhead = Math.min(result.invocationOverhead, invocationCost);
+			}
+		}
+		calibration = result;
+		return result;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_Counter probe call (the probe calls include their workload stop check)
+	 * @return
+	 */
+	public double getCounterOverhead(){
+		return counterOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_Timer probe call
+	 * @return
+	 */
+	public double getTimerOverhead(){
+		return timerOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds of the timer's own work that is recorded inside each timed interval
+	 * @return
+	 */
+	public double getTimerIntervalOverhead(){
+		return timerIntervalOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_Trace probe call (while tracing is disabled)
+	 * @return
+	 */
+	public double getTraceOverhead(){
+		return traceOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_Allocation probe call
+	 * @return
+	 */
+	public double getAllocationOverhead(){
+		return allocationOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_TripCount header probe call
+	 * @return
+	 */
+	public double getTripCountOverhead(){
+		return tripCountOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds per TCA_Context header probe call
+	 * @return
+	 */
+	public double getContextOverhead(){
+		return contextOverhead;
+	}
+	
+	/**
+	 * Returns the nanoseconds of instrumentation included in each timed loop iteration, 
+	 * measured by timing empty iterations of all of the probes at a loop header
+	 * (probes of nested loops are not included)
+	 * @return
+	 */
+	public double getIterationOverhead(){
+		return iterationOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds of the probes at a loop's entry and exits, which run
+	 * once for each execution of the loop
+	 * @return
+	 */
+	public double getExecutionOverhead(){
+		return executionOverhead;
+	}
+	
+	/**
+	 * Returns the mean nanoseconds of the probes at a method's entry and exits, which run
+	 * once for each invocation of a method that contains an instrumented loop
+	 * @return
+	 */
+	public double getInvocationOverhead(){
+		return invocationOverhead;
+	}
+	
+	/**
+	 * Writes the calibration as a CSV file in the format PROBE,OVERHEAD_NS
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void save(File outputFile) throws IOException {
+		FileWriter fw = new FileWriter(outputFile);
+		fw.write("PROBE,OVERHEAD_NS\n");
+		fw.write("TCA_Counter," + counterOverhead + "\n");
+		fw.write("TCA_Timer," + timerOverhead + "\n");
+		fw.write("TCA_Timer_Interval," + timerIntervalOverhead + "\n");
+		fw.write("TCA_Trace," + traceOverhead + "\n");
+		fw.write("TCA_Allocation," + allocationOverhead + "\n");
+		fw.write("TCA_TripCount," + tripCountOverhead + "\n");
+		fw.write("TCA_Context," + contextOverhead + "\n");
+		fw.write("Iteration," + iterationOverhead + "\n");
+		fw.write("Execution," + executionOverhead + "\n");
+		fw.write("Invocation," + invocationOverhead + "\n");
+		fw.close();
+	}
+	
+	@Override
+	public String toString() {
+		return "ProbeCalibration [counter=" + counterOverhead + "ns, timer=" + timerOverhead 
+				+ "ns, timerInterval=" + timerIntervalOverhead + "ns, trace=" + traceOverhead 
+				+ "ns, allocation=" + allocationOverhead + "ns, tripCount=" + tripCountOverhead 
+				+ "ns, context=" + contextOverhead + "ns, iteration=" + iterationOverhead 
+				+ "ns, execution=" + executionOverhead + "ns, invocation=" + invocationOverhead + "ns]";
+	}
+	
+}
@@ -0,0 +1,179 @@
+package tca.instrumentation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Primitive measurement cells indexed by measurement key ID, kept in a separate
+ * {@link MeasurementTable} for each thread so that probes never contend with each other.
+ *
+ * Snapshots are epoch based. A snapshot advances the global epoch, and each thread
+ * retires its active table and starts a new one the next time it probes, so a retired
+ * table is never written again and is merged without racing the probes. The probe
+ * path only reads the epoch, it never takes a lock shared with other threads or the
+ * reader. Threads that have not probed since the epoch advanced (idle, blocked or
+ * finished threads) are merged by the change of their active table since the last
+ * snapshot, so their measurements are not held back until they probe again.
+ *
+ * Merging those active tables is best effort. A thread that is still running but did
+ * not reach a probe within the retire timeout (ex: a long iteration) may write its active
+ * table while it is copied, so a snapshot can miss the values added during the copy.
+ * Nothing is lost or counted twice: the copy is remembered as merged and the missed
+ * values are merged by a later snapshot, once the thread retires the table or idles.
+ */
+public class ProbeCells {
+
+	// how long a snapshot waits for the running threads to retire their tables
+	private static final long RETIRE_TIMEOUT = 1000000; // nanoseconds
+
+	/**
+	 * The cells owned by a single thread
+	 */
+	private static class ThreadCells {
+		private final Thread owner = Thread.currentThread();
+
+		// the active table of this thread and the epoch it was started in, guarded by this
+		private MeasurementTable table = new MeasurementTable();
+		private volatile int epoch;
+
+		// tables retired by the owner thread, guarded by this
+		private ArrayList<MeasurementTable> retired = new ArrayList<MeasurementTable>();
+
+		// the part of the active table already merged by the reader, only used by the reader
+		private MeasurementTable merged = new MeasurementTable();
+
+		// the column of the last workload size seen by this thread
+		private int size = Integer.MIN_VALUE;
+		private int sizeIndex;
+		private long[] cells = new long[0];
+
+		private ThreadCells(int epoch){
+			this.epoch = epoch;
+		}
+
+		private synchronized void select(int size){
+			this.size = size;
+			this.sizeIndex = table.addSize(size);
+			this.cells = table.getColumn(sizeIndex);
+		}
+
+		private synchronized void grow(int id){
+			cells = table.growColumn(sizeIndex, id);
+		}
+
+		// called by the owner thread only, the retired table is never written again
+		private synchronized void retire(int epoch){
+			retired.add(table);
+			table = new MeasurementTable();
+			size = Integer.MIN_VALUE;
+			cells = new long[0];
+			this.epoch = epoch;
+		}
+	}
+
+	private volatile int epoch = 0;
+
+	private final ArrayList<ThreadCells> threads = new ArrayList<ThreadCells>();
+
+	private final ThreadLocal<ThreadCells> threadCells = new ThreadLocal<ThreadCells>(){
+		@Override
+		protected ThreadCells initialValue() {
+			ThreadCells cells = new ThreadCells(epoch);
+			synchronized (threads) {
+				threads.add(cells);
+			}
+			return cells;
+		}
+	};
+
+	// all measurements merged so far, and the cumulative measurements at the last interval, guarded by threads
+	private final MeasurementTable cumulative = new MeasurementTable();
+	private MeasurementTable intervalStart = new MeasurementTable();
+
+	/**
+	 * Adds the value to the calling thread's cell of the given size and key ID
+	 * @param size
+	 * @param id
+	 * @param value
+	 */
+	public void add(int size, int id, long value){
+		ThreadCells cells = threadCells.get();
+		int epoch = this.epoch;
+		if(cells.epoch != epoch){
+			cells.retire(epoch);
+		}
+		if(cells.size != size){
+			cells.select(size);
+		}
+		if(id >= cells.cells.length){
+			cells.grow(id);
+		}
+		cells.cells[id] += value;
+	}
+
+	/**
+	 * Returns a new table with the sum of the cells of all threads
+	 * @return
+	 */
+	public MeasurementTable snapshot(){
+		synchronized (threads) {
+			merge();
+			return cumulative.copy();
+		}
+	}
+
+	/**
+	 * Returns a new table with the sum of the cells of all threads added since the
+	 * previous call (or since the cells were created), for per interval rates
+	 * @return
+	 */
+	public MeasurementTable interval(){
+		synchronized (threads) {
+			merge();
+			MeasurementTable result = cumulative.copy();
+			result.subtractAll(intervalStart);
+			intervalStart = cumulative.copy();
+			return result;
+		}
+	}
+
+	// advances the epoch and merges the retired tables (and the unmerged
+	// part of the active tables of threads that did not retire them)
+	private void merge(){
+		int epoch = this.epoch + 1;
+		this.epoch = epoch;
+
+		// give the running threads a moment to reach a probe and retire their tables
+		long deadline = System.nanoTime() + RETIRE_TIMEOUT;
+		for(ThreadCells cells : threads){
+			while(cells.epoch != epoch && cells.owner.isAlive() && System.nanoTime() < deadline){
+				Thread.yield();
+			}
+		}
+
+		Iterator<ThreadCells> iterator = threads.iterator();
+		while(iterator.hasNext()){
+			ThreadCells cells = iterator.next();
+			// a thread that has finished is never written again
+			boolean finished = !cells.owner.isAlive();
+			synchronized (cells) {
+				for(MeasurementTable table : cells.retired){
+					cumulative.addAll(table);
+					cumulative.subtractAll(cells.merged);
+					cells.merged = new MeasurementTable();
+				}
+				cells.retired.clear();
+				if(cells.epoch != epoch || finished){
+					MeasurementTable current = cells.table.copy();
+					cumulative.addAll(current);
+					cumulative.subtractAll(cells.merged);
+					cells.merged = current;
+				}
+			}
+			if(finished){
+				iterator.remove();
+			}
+		}
+	}
+
+}
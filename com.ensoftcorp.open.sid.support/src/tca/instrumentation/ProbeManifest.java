@@ -0,0 +1,137 @@
+package tca.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the dense integer measurement key IDs used by the probes to the
+ * qualified measurement key names recorded in the instrumentation manifest.
+ * 
+ * The manifest is a CSV file in the format ID,KEY,METHOD,FILE,OFFSET that is
+ * written next to the instrumented Jimple. It is located by the "tca.manifest"
+ * system property, the working directory, or the classpath (in that order).
+ */
+public class ProbeManifest {
+
+	public static final String MANIFEST_FILE_NAME = "tca-manifest.csv";
+	public static final String MANIFEST_PROPERTY = "tca.manifest";
+	
+	private static final ProbeManifest instance = new ProbeManifest();
+	
+	private ArrayList<String> keys = new ArrayList<String>();
+	private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	
+	private ProbeManifest(){
+		try {
+			Reader manifest = openManifest();
+			if(manifest != null){
+				load(new BufferedReader(manifest));
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to load probe manifest: " + e.getMessage());
+		}
+	}
+	
+	public static ProbeManifest getInstance() {
+		return instance;
+	}
+	
+	private static Reader openManifest() throws IOException {
+		String path = System.getProperty(MANIFEST_PROPERTY);
+		if(path != null){
+			return new FileReader(path);
+		}
+		File workingDirectoryManifest = new File(MANIFEST_FILE_NAME);
+		if(workingDirectoryManifest.exists()){
+			return new FileReader(workingDirectoryManifest);
+		}
+		InputStream resource = ProbeManifest.class.getResourceAsStream("/" + MANIFEST_FILE_NAME);
+		if(resource != null){
+			return new InputStreamReader(resource, "UTF-8");
+		}
+		return null;
+	}
+	
+	private void load(BufferedReader reader) throws IOException {
+		try {
+			String line = reader.readLine(); // skip the header
+			while((line = reader.readLine()) != null){
+				String[] columns = line.split(",", 3);
+				if(columns.length >= 2){
+					int id = Integer.parseInt(columns[0]);
+					while(keys.size() <= id){
+						keys.add(null);
+					}
+					keys.set(id, columns[1]);
+					ids.put(columns[1], id);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Returns the measurement key name of the given ID, or the ID itself
+	 * if the key is not in the manifest
+	 * @param id
+	 * @return
+	 */
+	public synchronized String getKey(int id){
+		if(id < keys.size() && keys.get(id) != null){
+			return keys.get(id);
+		}
+		return Integer.toString(id);
+	}
+	
+	/**
+	 * Returns the ID of the given measurement key name, keys that are not in
+	 * the manifest (ex: probes linked by name) are assigned the next free ID
+	 * @param key
+	 * @return
+	 */
+	public int getId(String key){
+		Integer id = ids.get(key);
+		if(id == null){
+			synchronized (this) {
+				id = ids.get(key);
+				if(id == null){
+					id = keys.size();
+					keys.add(key);
+					ids.put(key, id);
+				}
+			}
+		}
+		return id;
+	}
+	
+	/**
+	 * Returns the ID of the given measurement key name (or of a key reported by
+	 * its ID because it is not in the manifest), or -1 if the key is unknown
+	 * @param key
+	 * @return
+	 */
+	public int findId(String key){
+		Integer id = ids.get(key);
+		if(id != null){
+			return id;
+		}
+		try {
+			return Integer.parseInt(key);
+		} catch (NumberFormatException e){
+			return -1;
+		}
+	}
+	
+	public synchronized int getKeyCount(){
+		return keys.size();
+	}
+	
+}
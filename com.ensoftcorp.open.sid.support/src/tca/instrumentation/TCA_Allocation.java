@@ -0,0 +1,255 @@
+package tca.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measures the bytes allocated by each loop, using the allocated bytes counter
+ * the JVM keeps for each thread (com.sun.management.ThreadMXBean)
+ *
+ * Like the timer, each iteration is measured from one visit of the loop header to
+ * the next, and the last iteration from the header to the loop's exit, and the bytes
+ * the thread allocated during the interval are added to the loop's total for the
+ * current workload size. Each thread keeps a stack of the open intervals, tagged with
+ * the {@link TCA_Invocation} that opened them, so recursive executions of a loop do not
+ * close each other's intervals, and intervals left open by invocations that already
+ * returned are closed by the next probe of the thread. On JVMs without thread
+ * allocation accounting the probe does nothing.
+ *
+ * Reading the counter may itself allocate (it does on JDK 8), so the bytes one read
+ * allocates are calibrated when the class is loaded and the reads of the probes
+ * in an interval are subtracted from it.
+ *
+ * The probe is disabled by default, the probes only read a flag until it is enabled
+ * with {@link #enable(boolean)} or -Dtca.allocation=true.
+ */
+public class TCA_Allocation extends MeasurementProbe {
+	
+	private static final TCA_Allocation instance = new TCA_Allocation();
+	
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Allocation(){}
+	
+	public static TCA_Allocation getInstance() {
+		return instance;
+	}
+	
+	static {
+		if(Boolean.getBoolean("tca.allocation")){
+			instance.enable(true);
+		}
+	}
+	
+	/**
+	 * A stack of the open allocation intervals of a single thread,
+	 * grows by doubling so steady state pushes and pops do not allocate
+	 */
+	private static class AllocationStack {
+		private final TCA_Invocation.InvocationStack invocations = TCA_Invocation.getInstance().getStack();
+		private final long threadId = Thread.currentThread().getId();
+		private int[] ids = new int[16];
+		private long[] serials = new long[16];
+		private long[] allocatedBytes = new long[16];
+		private long[] startReads = new long[16];
+		private long reads = 0; // the number of counter reads by the probes of the thread
+		private int depth = 0;
+		
+		private void push(int id, long serial, long bytes){
+			if(depth == ids.length){
+				ids = Arrays.copyOf(ids, depth * 2);
+				serials = Arrays.copyOf(serials, depth * 2);
+				allocatedBytes = Arrays.copyOf(allocatedBytes, depth * 2);
+				startReads = Arrays.copyOf(startReads, depth * 2);
+			}
+			ids[depth] = id;
+			serials[depth] = serial;
+			allocatedBytes[depth] = bytes;
+			startReads[depth] = reads;
+			depth++;
+		}
+		
+		// returns the index of the innermost open interval of the given id in the invocation
+		// with the given serial, or -1 (the intervals of returned invocations must be closed first)
+		private int find(int id, long serial){
+			for(int i=depth-1; i>=0 && serials[i] == serial; i--){
+				if(ids[i] == id){
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	private final ThreadLocal<AllocationStack> stacks = new ThreadLocal<AllocationStack>(){
+		@Override
+		protected AllocationStack initialValue() {
+			return new AllocationStack();
+		}
+	};
+	
+	// null if the JVM does not support thread allocation accounting
+	private static final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+	
+	private static com.sun.management.ThreadMXBean getThreadMXBean(){
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean){
+				com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+				if(allocationBean.isThreadAllocatedMemorySupported()){
+					if(!allocationBean.isThreadAllocatedMemoryEnabled()){
+						allocationBean.setThreadAllocatedMemoryEnabled(true);
+					}
+					return allocationBean;
+				}
+			}
+		} catch (Throwable t){
+			// not a HotSpot compatible JVM
+		}
+		return null;
+	}
+	
+	// the bytes allocated by one read of the counter, the smallest difference of
+	// back to back reads once the reads are warm
+	private static final long readAllocatedBytes = calibrateRead();
+	
+	private static long calibrateRead(){
+		if(threads == null){
+			return 0;
+		}
+		long threadId = Thread.currentThread().getId();
+		long result = Long.MAX_VALUE;
+		long previous = threads.getThreadAllocatedBytes(threadId);
+		for(int i=0; i<1000; i++){
+			long bytes = threads.getThreadAllocatedBytes(threadId);
+			result = Math.min(result, bytes - previous);
+			previous = bytes;
+		}
+		return Math.max(0, result);
+	}
+	
+	private volatile boolean enabled = false;
+	
+	/**
+	 * Enables or disables the probe
+	 * @param enabled
+	 */
+	public void enable(boolean enabled){
+		this.enabled = enabled;
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	/**
+	 * Returns the bytes one read of the thread allocation counter allocates,
+	 * which is subtracted from the measurements for each read in an interval
+	 * @return
+	 */
+	public long getReadAllocatedBytes(){
+		return readAllocatedBytes;
+	}
+	
+	/**
+	 * Returns true if this JVM reports the bytes allocated by each thread,
+	 * if not the probe does nothing and there will be no measurements
+	 * @return
+	 */
+	public boolean isSupported(){
+		return threads != null;
+	}
+	
+	public void setSize(int size){
+		currentSize = size;
+	}
+	
+	/**
+	 * Starts the next iteration of the loop with the given measurement key ID (probed at
+	 * the loop header), the open interval of the loop in the running invocation on the
+	 * calling thread is stopped and a new interval is started
+	 * @param id
+	 */
+	public static void probe(int id) {
+		WorkloadStop.check();
+		instance.iterate(id);
+	}
+	
+	/**
+	 * Stops the open interval of the loop with the given measurement key ID in the running
+	 * invocation on the calling thread (probed at the loop's exits, an exit reached without 
+	 * an open interval of the loop is ignored)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.stop(id);
+	}
+	
+	void iterate(int id){
+		if(!enabled || threads == null){
+			return;
+		}
+		AllocationStack stack = stacks.get();
+		long bytes = threads.getThreadAllocatedBytes(stack.threadId);
+		stack.reads++;
+		long serial = stack.invocations.current();
+		unwind(stack, serial, bytes);
+		int index = stack.find(id, serial);
+		if(index != -1){
+			stop(stack, index, bytes);
+		}
+		stack.push(id, serial, bytes);
+	}
+	
+	void stop(int id){
+		if(!enabled || threads == null){
+			return;
+		}
+		AllocationStack stack = stacks.get();
+		long bytes = threads.getThreadAllocatedBytes(stack.threadId);
+		stack.reads++;
+		long serial = stack.invocations.current();
+		unwind(stack, serial, bytes);
+		int index = stack.find(id, serial);
+		if(index != -1){
+			stop(stack, index, bytes);
+		}
+	}
+	
+	// closes the intervals left open by invocations that already returned
+	private void unwind(AllocationStack stack, long serial, long bytes){
+		while(stack.depth > 0 && stack.serials[stack.depth - 1] > serial){
+			pop(stack, bytes);
+		}
+	}
+	
+	// closes the interval at the given index, the intervals above it were left open by
+	// inner loops that exited without an exit probe and are closed first
+	private void stop(AllocationStack stack, int index, long bytes){
+		while(stack.depth > index){
+			pop(stack, bytes);
+		}
+	}
+	
+	// records the interval at the top of the stack and pops it
+	private void pop(AllocationStack stack, long bytes){
+		int index = stack.depth - 1;
+		// every read after the start of the interval allocated into it, 
+		// including the read that stops it and the reads of nested probes
+		long probeBytes = (stack.reads - stack.startReads[index]) * readAllocatedBytes;
+		measurements.add(getCurrentSize(), stack.ids[index], Math.max(0, bytes - stack.allocatedBytes[index] - probeBytes));
+		stack.depth = index;
+	}
+	
+	/**
+	 * Starts the next iteration of the loop with the given measurement key
+	 * @param key
+	 */
+	public static void probe(String key) {
+		probe(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exit(String key) {
+		exit(ProbeManifest.getInstance().getId(key));
+	}
+	
+}
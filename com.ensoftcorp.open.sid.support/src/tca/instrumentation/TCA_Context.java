@@ -0,0 +1,592 @@
+package tca.instrumentation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Attributes loop iterations and time to calling contexts instead of to loop headers
+ *
+ * The same loop reached through different callers is a single key to the counter and
+ * timer. In context sensitive mode each thread keeps a shadow stack of the instrumented
+ * methods and loops it is executing, and every distinct path of the shadow stack is a
+ * node of a calling context tree (CCT) with a dense integer ID. Loop header visits are
+ * counted for the CCT node of the loop in its current context, and the time between
+ * pushing and popping a frame is added to the frame's node (inclusive time).
+ *
+ * The shadow stack is pushed on method entry and on the first header visit of a loop
+ * execution, and popped on method and loop exits. A loop exit only pops the loop's frame
+ * in the current method, so a recursive call that reaches the same loop does not pop
+ * its caller's frames. Frames left open by exceptional exits are popped with the frame
+ * of an enclosing method when it exits. The contexts
+ * of recursive calls deeper than {@link #MAX_CONTEXT_DEPTH} are folded into the node
+ * at that depth, so the tree stays bounded.
+ *
+ * The mode is disabled by default, the probes only read a flag until it is enabled
+ * with {@link #enable(boolean)} or -Dtca.context=true.
+ */
+public class TCA_Context implements Probe {
+	
+	/**
+	 * The deepest context that gets its own CCT node
+	 */
+	public static final int MAX_CONTEXT_DEPTH = 64;
+	
+	/**
+	 * The ID of the root of the calling context tree
+	 */
+	public static final int ROOT = 0;
+	
+	// bounds the frames leaked by exceptional exits of outermost methods and loops
+	private static final int MAX_STACK_DEPTH = 4096;
+	
+	// the number of child lookups each thread caches
+	private static final int CACHE_SIZE = 1024;
+	
+	private static final TCA_Context instance = new TCA_Context();
+	
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Context(){}
+	
+	public static TCA_Context getInstance() {
+		return instance;
+	}
+	
+	static {
+		if(Boolean.getBoolean("tca.context")){
+			instance.enable(true);
+		}
+	}
+	
+	/**
+	 * The calling context tree shared by all threads, nodes are only ever added
+	 */
+	private static class ContextTree {
+		private int[] parents = new int[256];
+		private int[] elements = new int[256];
+		private int[] depths = new int[256];
+		private boolean[] methods = new boolean[256];
+		private int nodes = 1;
+		
+		// open addressing table of (parent, element) to node ID + 1 (0 is empty)
+		private long[] childKeys = new long[512];
+		private int[] children = new int[512];
+		
+		private ContextTree(){
+			parents[ROOT] = -1;
+			elements[ROOT] = -1;
+		}
+		
+		private synchronized int getChild(int parent, int element, boolean method){
+			long key = key(parent, element);
+			int mask = childKeys.length - 1;
+			int slot = hash(key) & mask;
+			while(children[slot] != 0){
+				if(childKeys[slot] == key){
+					return children[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int node = nodes++;
+			if(node == parents.length){
+				parents = Arrays.copyOf(parents, node * 2);
+				elements = Arrays.copyOf(elements, node * 2);
+				depths = Arrays.copyOf(depths, node * 2);
+				methods = Arrays.copyOf(methods, node * 2);
+			}
+			parents[node] = parent;
+			elements[node] = element;
+			depths[node] = depths[parent] + 1;
+			methods[node] = method;
+			childKeys[slot] = key;
+			children[slot] = node + 1;
+			if(nodes * 2 > childKeys.length){
+				rehash();
+			}
+			return node;
+		}
+		
+		private void rehash(){
+			long[] oldKeys = childKeys;
+			int[] oldChildren = children;
+			childKeys = new long[oldKeys.length * 2];
+			children = new int[oldChildren.length * 2];
+			int mask = childKeys.length - 1;
+			for(int i=0; i<oldKeys.length; i++){
+				if(oldChildren[i] != 0){
+					int slot = hash(oldKeys[i]) & mask;
+					while(children[slot] != 0){
+						slot = (slot + 1) & mask;
+					}
+					childKeys[slot] = oldKeys[i];
+					children[slot] = oldChildren[i];
+				}
+			}
+		}
+		
+		private synchronized int getNodeCount(){
+			return nodes;
+		}
+		
+		private synchronized int getParent(int node){
+			return parents[node];
+		}
+		
+		private synchronized int getElement(int node){
+			return elements[node];
+		}
+		
+		private synchronized int getDepth(int node){
+			return depths[node];
+		}
+		
+		private synchronized boolean isMethod(int node){
+			return methods[node];
+		}
+	}
+	
+	private static long key(int parent, int element){
+		return ((long) parent << 32) | (element & 0xFFFFFFFFL);
+	}
+	
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/**
+	 * The shadow stack of a single thread, with a cache of the tree's child lookups
+	 */
+	private static class ContextStack {
+		private int[] elements = new int[16];
+		private int[] nodes = new int[16];
+		private boolean[] methods = new boolean[16];
+		private long[] timestamps = new long[16];
+		private int depth = 0;
+		
+		private final long[] cacheKeys = new long[CACHE_SIZE];
+		private final int[] cacheNodes = new int[CACHE_SIZE];
+		
+		private ContextStack(){
+			Arrays.fill(cacheKeys, -1L);
+		}
+		
+		private int getCurrentNode(){
+			return depth == 0 ? ROOT : nodes[depth - 1];
+		}
+		
+		private void push(ContextTree tree, int element, boolean method, long timestamp){
+			if(depth == elements.length){
+				elements = Arrays.copyOf(elements, depth * 2);
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				methods = Arrays.copyOf(methods, depth * 2);
+				timestamps = Arrays.copyOf(timestamps, depth * 2);
+			}
+			int parent = getCurrentNode();
+			elements[depth] = element;
+			nodes[depth] = depth < MAX_CONTEXT_DEPTH ? getChild(tree, parent, element, method) : parent;
+			methods[depth] = method;
+			timestamps[depth] = timestamp;
+			depth++;
+		}
+		
+		private int getChild(ContextTree tree, int parent, int element, boolean method){
+			long key = key(parent, element);
+			int slot = hash(key) & (CACHE_SIZE - 1);
+			if(cacheKeys[slot] != key){
+				cacheNodes[slot] = tree.getChild(parent, element, method);
+				cacheKeys[slot] = key;
+			}
+			return cacheNodes[slot];
+		}
+		
+		// returns the index of the innermost frame of the given element, or -1
+		private int find(int element){
+			for(int i=depth-1; i>=0; i--){
+				if(elements[i] == element){
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		// returns the index of the innermost frame of the given loop in the current method, or -1
+		private int findLoop(int element){
+			for(int i=depth-1; i>=0 && !methods[i]; i--){
+				if(elements[i] == element){
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	private final ContextTree tree = new ContextTree();
+	
+	private final ThreadLocal<ContextStack> stacks = new ThreadLocal<ContextStack>(){
+		@Override
+		protected ContextStack initialValue() {
+			return new ContextStack();
+		}
+	};
+	
+	private volatile boolean enabled = false;
+	
+	// the size of workloads run outside of a WorkloadScope
+	private volatile int currentSize = 1;
+	
+	// loop header visits and inclusive time in nanoseconds, indexed by CCT node
+	private final ProbeCells counts = new ProbeCells();
+	private final ProbeCells times = new ProbeCells();
+	
+	/**
+	 * Enables or disables the context sensitive mode, it should be enabled before
+	 * the workload starts so that the shadow stacks see every method entry
+	 * @param enabled
+	 */
+	public void enable(boolean enabled){
+		this.enabled = enabled;
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	public void setSize(int size){
+		currentSize = size;
+	}
+	
+	/**
+	 * Pushes the method with the given measurement key ID onto the shadow stack (probed on method entry)
+	 * @param id
+	 */
+	public static void enter(int id) {
+		instance.enterMethod(id);
+	}
+	
+	/**
+	 * Counts a header visit of the loop with the given measurement key ID in the current
+	 * context, pushing the loop onto the shadow stack if it is not executing in the current
+	 * method (probed at the loop header)
+	 * @param id
+	 */
+	public static void loop(int id) {
+		instance.visitLoop(id);
+	}
+	
+	/**
+	 * Pops the innermost frame of the method with the given measurement key ID
+	 * and the frames above it (probed on method returns)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.exitFrame(id);
+	}
+	
+	/**
+	 * Pops the frame of the loop with the given measurement key ID in the current method
+	 * and the frames above it (probed on loop exits), an exit reached without the loop
+	 * executing in the current method is ignored
+	 * @param id
+	 */
+	public static void exitLoop(int id) {
+		instance.exitLoopFrame(id);
+	}
+	
+	public static void enter(String key) {
+		enter(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void loop(String key) {
+		loop(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exit(String key) {
+		exit(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exitLoop(String key) {
+		exitLoop(ProbeManifest.getInstance().getId(key));
+	}
+	
+	void enterMethod(int id){
+		if(!enabled){
+			return;
+		}
+		ContextStack stack = stacks.get();
+		if(stack.depth == MAX_STACK_DEPTH){
+			pop(stack, 0, System.nanoTime());
+		}
+		stack.push(tree, id, true, System.nanoTime());
+	}
+	
+	void visitLoop(int id){
+		if(!enabled){
+			return;
+		}
+		ContextStack stack = stacks.get();
+		int index = stack.findLoop(id);
+		if(index == -1){
+			long timestamp = System.nanoTime();
+			if(stack.depth == MAX_STACK_DEPTH){
+				pop(stack, 0, timestamp);
+			}
+			stack.push(tree, id, false, timestamp);
+		} else if(index != stack.depth - 1){
+			// frames above the loop are inner loops that exited without an exit probe
+			pop(stack, index + 1, System.nanoTime());
+		}
+		counts.add(WorkloadScope.getSize(currentSize), stack.nodes[stack.depth - 1], 1);
+	}
+	
+	void exitFrame(int id){
+		if(!enabled){
+			return;
+		}
+		ContextStack stack = stacks.get();
+		int index = stack.find(id);
+		if(index != -1){
+			pop(stack, index, System.nanoTime());
+		}
+	}
+	
+	void exitLoopFrame(int id){
+		if(!enabled){
+			return;
+		}
+		ContextStack stack = stacks.get();
+		// a recursive callee must not pop the loop's frame in its caller
+		int index = stack.findLoop(id);
+		if(index != -1){
+			pop(stack, index, System.nanoTime());
+		}
+	}
+	
+	// pops the frames from the top of the stack down to the given index, adding their inclusive time
+	private void pop(ContextStack stack, int index, long timestamp){
+		int size = WorkloadScope.getSize(currentSize);
+		for(int i=stack.depth-1; i>=index; i--){
+			// frames folded into their parent's node are already timed by an outer frame
+			if(i == 0 || stack.nodes[i] != stack.nodes[i - 1]){
+				times.add(size, stack.nodes[i], timestamp - stack.timestamps[i]);
+			}
+		}
+		stack.depth = index;
+	}
+	
+	/**
+	 * Returns the CCT node ID of the calling thread's current context
+	 * @return
+	 */
+	public int getCurrentNode(){
+		return stacks.get().getCurrentNode();
+	}
+	
+	/**
+	 * Returns the loop header visits by workload size and CCT node ID
+	 * @return
+	 */
+	public MeasurementTable getCounts(){
+		return counts.snapshot();
+	}
+	
+	/**
+	 * Returns the inclusive time (in nanoseconds) by workload size and CCT node ID,
+	 * the time of a node includes the time of its children
+	 * @return
+	 */
+	public MeasurementTable getTimes(){
+		return times.snapshot();
+	}
+	
+	public int getNodeCount(){
+		return tree.getNodeCount();
+	}
+	
+	/**
+	 * Returns the parent of the given CCT node, or -1 for the root
+	 * @param node
+	 * @return
+	 */
+	public int getParent(int node){
+		return tree.getParent(node);
+	}
+	
+	/**
+	 * Returns the measurement key ID of the method or loop of the given CCT node, or -1 for the root
+	 * @param node
+	 * @return
+	 */
+	public int getElement(int node){
+		return tree.getElement(node);
+	}
+	
+	public int getDepth(int node){
+		return tree.getDepth(node);
+	}
+	
+	/**
+	 * Returns true if the given CCT node is a method, false if it is a loop or the root
+	 * @param node
+	 * @return
+	 */
+	public boolean isMethod(int node){
+		return tree.isMethod(node);
+	}
+	
+	/**
+	 * Returns the measurement key ID of the method or loop that called the given CCT node's
+	 * method, or -1 if the method was not called from an instrumented method or loop
+	 * (the caller of a loop is the caller of the method the loop executes in)
+	 * @param node
+	 * @return
+	 */
+	public int getCaller(int node){
+		int method = node;
+		while(method != ROOT && !isMethod(method)){
+			method = getParent(method);
+		}
+		return method == ROOT ? -1 : getElement(getParent(method));
+	}
+	
+	/**
+	 * Returns the measurement keys of the path from the root to the given CCT node separated by " > "
+	 * @param node
+	 * @return
+	 */
+	public String getContext(int node){
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		StringBuilder context = new StringBuilder();
+		for(int current=node; current != ROOT && current != -1; current=getParent(current)){
+			if(context.length() > 0){
+				context.insert(0, " > ");
+			}
+			context.insert(0, manifest.getKey(getElement(current)));
+		}
+		return context.toString();
+	}
+	
+	/**
+	 * Writes a CSV file of the calling context tree in the format
+	 * NODE,PARENT,KEY,DEPTH,CONTEXT
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveContextTree(File outputFile) throws IOException {
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("NODE,PARENT,KEY,DEPTH,CONTEXT\n");
+			int nodes = getNodeCount();
+			for(int node=1; node<nodes; node++){
+				writer.write(node + "," + getParent(node) + "," + manifest.getKey(getElement(node)) + ","
+						+ getDepth(node) + "," + getContext(node) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes a CSV file of the measurements of each CCT node in the format
+	 * NODE,KEY,WORKLOAD_SIZE,COUNT,INCLUSIVE_TIME
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveContextMeasurements(File outputFile) throws IOException {
+		MeasurementTable counts = getCounts();
+		MeasurementTable times = getTimes();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("NODE,KEY,WORKLOAD_SIZE,COUNT,INCLUSIVE_TIME\n");
+			int nodes = getNodeCount();
+			for(int node=1; node<nodes; node++){
+				for(int sizeIndex=0; sizeIndex<times.getSizeCount(); sizeIndex++){
+					int size = times.getSize(sizeIndex);
+					long time = times.get(node, sizeIndex);
+					int countSizeIndex = counts.getSizeIndex(size);
+					long count = countSizeIndex == -1 ? 0 : counts.get(node, countSizeIndex);
+					if(time != 0 || count != 0){
+						writer.write(node + "," + manifest.getKey(getElement(node)) + "," + size + "," + count + "," + time + "\n");
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Folds the calling context tree back onto the loop call graph, summing the
+	 * measurements of all the contexts in which each loop or method is reached from
+	 * each caller (see {@link #getCaller(int)}), and writes a CSV file in the format
+	 * CALLER_KEY,KEY,WORKLOAD_SIZE,COUNT,INCLUSIVE_TIME
+	 *
+	 * A loop in a shared method has a row for each of the method's callers, so the
+	 * caller that makes the loop expensive stands out.
+	 *
+	 * Recursive contexts fold into the same edges, so the inclusive time of a
+	 * recursive edge counts the nested calls more than once.
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveFoldedMeasurements(File outputFile) throws IOException {
+		MeasurementTable counts = getCounts();
+		MeasurementTable times = getTimes();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		// (caller element, element) to workload size to {count, time}
+		HashMap<Long, HashMap<Integer, long[]>> edges = new HashMap<Long, HashMap<Integer, long[]>>();
+		int nodes = getNodeCount();
+		for(int node=1; node<nodes; node++){
+			Long edge = key(getCaller(node), getElement(node));
+			HashMap<Integer, long[]> edgeMeasurements = edges.get(edge);
+			if(edgeMeasurements == null){
+				edgeMeasurements = new HashMap<Integer, long[]>();
+				edges.put(edge, edgeMeasurements);
+			}
+			for(int sizeIndex=0; sizeIndex<counts.getSizeCount(); sizeIndex++){
+				long count = counts.get(node, sizeIndex);
+				if(count != 0){
+					getSizeMeasurements(edgeMeasurements, counts.getSize(sizeIndex))[0] += count;
+				}
+			}
+			for(int sizeIndex=0; sizeIndex<times.getSizeCount(); sizeIndex++){
+				long time = times.get(node, sizeIndex);
+				if(time != 0){
+					getSizeMeasurements(edgeMeasurements, times.getSize(sizeIndex))[1] += time;
+				}
+			}
+		}
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("CALLER_KEY,KEY,WORKLOAD_SIZE,COUNT,INCLUSIVE_TIME\n");
+			for(Entry<Long, HashMap<Integer, long[]>> edge : edges.entrySet()){
+				int caller = (int) (edge.getKey() >> 32);
+				int element = (int) (long) edge.getKey();
+				String callerKey = caller == -1 ? "" : manifest.getKey(caller);
+				String key = manifest.getKey(element);
+				for(Entry<Integer, long[]> measurement : edge.getValue().entrySet()){
+					writer.write(callerKey + "," + key + "," + measurement.getKey() + ","
+							+ measurement.getValue()[0] + "," + measurement.getValue()[1] + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static long[] getSizeMeasurements(HashMap<Integer, long[]> edgeMeasurements, int size){
+		long[] measurements = edgeMeasurements.get(size);
+		if(measurements == null){
+			measurements = new long[2];
+			edgeMeasurements.put(size, measurements);
+		}
+		return measurements;
+	}
+	
+}
@@ -1,17 +1,13 @@
 package tca.instrumentation;
 
-import java.util.HashMap;
-
 public class TCA_Counter extends MeasurementProbe {
 
-	private static TCA_Counter instance = null;
+	private static final TCA_Counter instance = new TCA_Counter();
 	
-	private TCA_Counter(){}
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Counter(){}
 
 	public static TCA_Counter getInstance() {
-		if (instance == null) {
-			instance = new TCA_Counter();
-		}
 		return instance;
 	}
 	   
@@ -19,18 +15,26 @@ public class TCA_Counter extends MeasurementProbe {
 		currentSize = size;
 	}
 	
-	private synchronized void incrementCounter(String key) {
-		HashMap<String, Long> counters = getMeasurementForSize(currentSize);
-		Long counterValue = 0L;
-		if (counters.containsKey(key)) {
-			counterValue = counters.remove(key);
-		}
-		counterValue++;
-		counters.put(key, counterValue);
+	/**
+	 * Counts an iteration of the loop with the given measurement key ID
+	 * @param id
+	 */
+	public static void probe(int id) {
+		WorkloadStop.check();
+		instance.count(id);
+	}
+	
+	void count(int id){
+		measurements.add(getCurrentSize(), id, 1);
 	}
 	
-	public static synchronized void probe(String key) {
-		getInstance().incrementCounter(key);
+	/**
+	 * Counts an iteration of the loop with the given measurement key name
+	 * (supports instrumentation that links probes by name)
+	 * @param key
+	 */
+	public static void probe(String key) {
+		probe(ProbeManifest.getInstance().getId(key));
 	}
 	
 }
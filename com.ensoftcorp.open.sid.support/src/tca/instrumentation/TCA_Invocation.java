@@ -0,0 +1,169 @@
+package tca.instrumentation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the invocations of the methods that contain instrumented loops on each thread,
+ * so the loop probes can tell executions of the same loop in different invocations
+ * of its method apart (ex: a recursive call from the loop body that reaches the loop again)
+ *
+ * The methods are probed on entry and on their exits. Each invocation gets a serial
+ * number that is larger than the serials of the invocations below it on the thread's
+ * stack. The timer and trip count stacks tag each of their frames with the serial of
+ * the running invocation: a frame with the current serial belongs to the running
+ * invocation, and a frame with a larger serial was left open by an invocation that
+ * already returned. Outside of the probed methods the serial is 0, so probes used
+ * without the invocation probes see a single invocation.
+ *
+ * Invocations that exit with an exception are popped with the enclosing invocation
+ * that exits next.
+ *
+ * The stacks grow by doubling up to MAX_STACK_DEPTH invocations. Invocations entered
+ * beyond that depth are not pushed, they are counted and popped by the next exits, so
+ * the probes attribute them to the deepest invocation on the stack. The frames on the
+ * stack are never discarded, the overflow is reported once on the standard error and
+ * by {@link #getOverflowedInvocations()}.
+ */
+public class TCA_Invocation implements Probe {
+	
+	// bounds the frames leaked by exceptional exits of outermost methods,
+	// deep enough for deeply recursive workloads
+	private static final int MAX_STACK_DEPTH = 1 << 16;
+	
+	// invocations entered beyond the maximum depth on any thread
+	private static final AtomicLong overflowedInvocations = new AtomicLong();
+	private static final AtomicBoolean overflowReported = new AtomicBoolean();
+	
+	private static final TCA_Invocation instance = new TCA_Invocation();
+	
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Invocation(){}
+	
+	public static TCA_Invocation getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * The invocations of the probed methods on a single thread
+	 */
+	static class InvocationStack {
+		private int[] ids = new int[16];
+		private long[] serials = new long[16];
+		private int depth = 0;
+		private long nextSerial = 1;
+		
+		// invocations entered beyond the maximum depth that have not exited
+		private int overflow = 0;
+		
+		/**
+		 * Returns the serial of the running invocation, or 0 outside of the probed methods
+		 * @return
+		 */
+		long current(){
+			return depth == 0 ? 0 : serials[depth - 1];
+		}
+		
+		private void push(int id){
+			if(depth == MAX_STACK_DEPTH){
+				overflow++;
+				overflowedInvocations.incrementAndGet();
+				if(overflowReported.compareAndSet(false, true)){
+					System.err.println("Warning: method invocations deeper than " + MAX_STACK_DEPTH 
+							+ " are attributed to the deepest tracked invocation");
+				}
+				return;
+			}
+			if(depth == ids.length){
+				ids = Arrays.copyOf(ids, depth * 2);
+				serials = Arrays.copyOf(serials, depth * 2);
+			}
+			ids[depth] = id;
+			serials[depth] = nextSerial++;
+			depth++;
+		}
+		
+		// pops the innermost invocation of the given method and the invocations above it,
+		// an exit without a matching entry (ex: the entry ran before the probes were loaded) is ignored
+		private void pop(int id){
+			if(overflow > 0){
+				overflow--;
+				return;
+			}
+			for(int i=depth-1; i>=0; i--){
+				if(ids[i] == id){
+					depth = i;
+					return;
+				}
+			}
+		}
+	}
+	
+	private final ThreadLocal<InvocationStack> stacks = new ThreadLocal<InvocationStack>(){
+		@Override
+		protected InvocationStack initialValue() {
+			return new InvocationStack();
+		}
+	};
+	
+	/**
+	 * Returns the invocation stack of the calling thread, probe stacks keep
+	 * a reference to it so they do not look it up on every probe
+	 * @return
+	 */
+	InvocationStack getStack(){
+		return stacks.get();
+	}
+	
+	/**
+	 * Returns the serial of the running invocation on the calling thread
+	 * @return
+	 */
+	public long getCurrentInvocation(){
+		return stacks.get().current();
+	}
+	
+	/**
+	 * Returns the number of invocations entered beyond the maximum stack depth on all threads,
+	 * their loop probes were attributed to the deepest invocation on the stack
+	 * @return
+	 */
+	public long getOverflowedInvocations(){
+		return overflowedInvocations.get();
+	}
+	
+	/**
+	 * Pushes an invocation of the method with the given measurement key ID (probed on method entry)
+	 * @param id
+	 */
+	public static void enter(int id) {
+		instance.push(id);
+	}
+	
+	/**
+	 * Pops the innermost invocation of the method with the given measurement key ID
+	 * (probed on method returns)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.pop(id);
+	}
+	
+	void push(int id){
+		stacks.get().push(id);
+	}
+	
+	void pop(int id){
+		stacks.get().pop(id);
+	}
+	
+	public static void enter(String key) {
+		enter(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exit(String key) {
+		exit(ProbeManifest.getInstance().getId(key));
+	}
+	
+}
@@ -1,35 +1,59 @@
 package tca.instrumentation;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 
+/**
+ * Prints are recorded as value summaries by {@link TCA_Value} instead of being 
+ * formatted and written to the console on the calling thread. The value recording
+ * is started on the first print, to the file named by the tca.values system property 
+ * (tca-values.csv by default), and is stopped when the JVM shuts down.
+ * 
+ * @deprecated Use {@link TCA_Value#probe(int, Object)}
+ */
+@Deprecated
 public class TCA_Print implements Probe {
 
+	public static final String VALUES_FILE_NAME = "tca-values.csv";
+	public static final String VALUES_PROPERTY = "tca.values";
+	public static final String PRINT_KEY = "TCA_Print";
+	
+	private static volatile int printId = -1;
+	
 	public static void print(Object value){
-		if(value == null){
-			System.out.println("Probe: null");
-		} else {
-			if(value instanceof int[]){
-				int[] ints = (int[])value;
-				System.out.println("Probe: int[" + ints.length + "] " + Arrays.toString(ints));
-			} else if(value instanceof short[]){
-				short[] shorts = (short[])value;
-				System.out.println("Probe: short[" + shorts.length + "] " + Arrays.toString(shorts));
-			} else if(value instanceof double[]){
-				double[] doubles = (double[])value;
-				System.out.println("Probe: double[" + doubles.length + "] " + Arrays.toString(doubles));
-			} else if(value instanceof float[]){
-				float[] floats = (float[])value;
-				System.out.println("Probe: float[" + floats.length + "] " + Arrays.toString(floats));
-			} else if(value instanceof byte[]){
-				byte[] bytes = (byte[])value;
-				System.out.println("Probe: byte[" + bytes.length + "] " + new String(bytes));
-			} else if(value instanceof boolean[]){
-				boolean[] booleans = (boolean[])value;
-				System.out.println("Probe: boolean[" + booleans.length + "] " + Arrays.toString(booleans));
-			} else {
-				System.out.println("Probe: " + value.toString());
+		int id = printId;
+		if(id == -1){
+			id = start();
+		}
+		TCA_Value.probe(id, value);
+	}
+	
+	// starts recording value summaries for the prints and stops it at shutdown
+	private static synchronized int start(){
+		if(printId != -1){
+			return printId;
+		}
+		final TCA_Value values = TCA_Value.getInstance();
+		if(!values.isEnabled()){
+			try {
+				values.setPrefixLength(TCA_Value.MAX_PREFIX_LENGTH);
+				values.start(new File(System.getProperty(VALUES_PROPERTY, VALUES_FILE_NAME)));
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							values.stop();
+						} catch (Exception e) {
+							System.err.println("Unable to write values: " + e.getMessage());
+						}
+					}
+				}));
+			} catch (IOException e) {
+				System.err.println("Unable to record values: " + e.getMessage());
 			}
 		}
+		printId = ProbeManifest.getInstance().getId(PRINT_KEY);
+		return printId;
 	}
 	
 }
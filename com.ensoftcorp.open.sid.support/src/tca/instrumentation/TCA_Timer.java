@@ -1,50 +1,626 @@
 package tca.instrumentation;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 public class TCA_Timer extends MeasurementProbe {
 
-	private static TCA_Timer instance = null;
+	private static final TCA_Timer instance = new TCA_Timer();
 	
-	private TCA_Timer(){}
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Timer(){}
 
 	public static TCA_Timer getInstance() {
-		if (instance == null) {
-			instance = new TCA_Timer();
-		}
 		return instance;
 	}
 	
-	private HashMap<String,Long> lastTimestamp = new HashMap<String,Long>();
+	/**
+	 * A stack of the open timer intervals of a single thread
+	 * 
+	 * Intervals are pushed when a timer starts and popped when it stops, so nested
+	 * loops and recursive re-entry of the same loop each get their own interval.
+	 * Each interval is tagged with the {@link TCA_Invocation} that opened it, a probe
+	 * only finds the intervals of the running invocation, and intervals left open by
+	 * invocations that already returned are closed by the next probe of the thread.
+	 * The stack grows by doubling, so steady state pushes and pops do not allocate.
+	 */
+	private static class TimerStack {
+		private final TCA_Invocation.InvocationStack invocations = TCA_Invocation.getInstance().getStack();
+		private int[] ids = new int[16];
+		private long[] serials = new long[16];
+		private long[] timestamps = new long[16];
+		private long[] cpuTimestamps = new long[16];
+		private long[] childTimes = new long[16]; // time of the closed intervals nested directly in each interval
+		private int depth = 0;
+		
+		// intervals to skip before the next sampled interval, and the state of the 
+		// thread's xorshift generator for geometric sampling
+		private int countdown = 0;
+		private long random = System.nanoTime() | 1;
+		
+		private void push(int id, long serial, long timestamp, long cpuTimestamp){
+			if(depth == ids.length){
+				ids = Arrays.copyOf(ids, depth * 2);
+				serials = Arrays.copyOf(serials, depth * 2);
+				timestamps = Arrays.copyOf(timestamps, depth * 2);
+				cpuTimestamps = Arrays.copyOf(cpuTimestamps, depth * 2);
+				childTimes = Arrays.copyOf(childTimes, depth * 2);
+			}
+			ids[depth] = id;
+			serials[depth] = serial;
+			timestamps[depth] = timestamp;
+			cpuTimestamps[depth] = cpuTimestamp;
+			childTimes[depth] = 0;
+			depth++;
+		}
+		
+		// returns the index of the innermost open interval of the given id in the invocation
+		// with the given serial, or -1 (the intervals of returned invocations must be closed first)
+		private int find(int id, long serial){
+			for(int i=depth-1; i>=0 && serials[i] == serial; i--){
+				if(ids[i] == id){
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		// returns a geometrically distributed number of trials (>= 1) until the next sample
+		private int nextGeometric(int period){
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			double uniform = ((random >>> 11) + 1) * 0x1.0p-53; // (0,1]
+			double trials = 1 + Math.floor(Math.log(uniform) / Math.log(1.0 - (1.0 / period)));
+			return trials > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) trials;
+		}
+	}
+	
+	// marks an open interval that was not sampled, its timestamp is never read
+	private static final long SKIPPED = Long.MIN_VALUE;
+	
+	// marks a timestamp the probe has not read from the clock yet
+	private static final long NOT_READ = Long.MIN_VALUE + 1;
+	
+	// marks an open interval without a CPU time start
+	private static final long NO_CPU_TIME = -1;
+	
+	private final ThreadLocal<TimerStack> stacks = new ThreadLocal<TimerStack>(){
+		@Override
+		protected TimerStack initialValue() {
+			return new TimerStack();
+		}
+	};
+
+	// optional per-iteration latency distributions, indexed by workload size and measurement key ID
+	private volatile boolean histogramsEnabled = Boolean.getBoolean("tca.timer.histograms");
+	private final HistogramCells histograms = new HistogramCells();
+	
+	// optional sampling, only 1 in samplingPeriod intervals (on average if geometric) is timed
+	private volatile int samplingPeriod = 1;
+	private volatile boolean geometricSampling = false;
+	private volatile boolean sampled = false;
+	private final ProbeCells samples = new ProbeCells(); // timed intervals
+	private final ProbeCells populations = new ProbeCells(); // timed and skipped intervals
+	
+	// optional CPU time of the calling thread for each interval, next to the wall time
+	private volatile boolean cpuTimeEnabled = false;
+	private final ProbeCells cpuMeasurements = new ProbeCells();
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	// optional exclusive (self) time of each interval, the wall time minus the time of the nested intervals
+	private volatile boolean exclusiveTimeEnabled = Boolean.getBoolean("tca.timer.exclusive");
+	private final ProbeCells exclusiveMeasurements = new ProbeCells();
+	
+	// optional attribution of garbage collection pauses to workload sizes
+	private GcPauseMonitor gcPauses = null;
+	
+	static {
+		if(Boolean.getBoolean("tca.timer.cputime")){
+			instance.enableCpuTime(true);
+		}
+		if(Boolean.getBoolean("tca.timer.gcpauses")){
+			instance.enableGcPauseTracking(true);
+		}
+	}
 
 	public void setSize(int size){
 		currentSize = size;
+		GcPauseMonitor monitor = gcPauses;
+		if(monitor != null){
+			monitor.setSize(size);
+		}
 	}
 	
-	public synchronized void start(String key){
-		lastTimestamp.remove(key); // just clear it out if there was already a record
-		lastTimestamp.put(key, System.nanoTime());
+	public boolean cpuTimeEnabled(){
+		return cpuTimeEnabled;
 	}
 	
-	public synchronized void stop(String key){
-		if(lastTimestamp.containsKey(key)){
-			long delta = System.nanoTime()-lastTimestamp.remove(key);
-			HashMap<String, Long> times = getMeasurementForSize(currentSize);
-			Long timeValue = 0L;
-			if (times.containsKey(key)) {
-				timeValue = times.remove(key);
+	/**
+	 * Enables recording the CPU time of the calling thread for each interval, in addition 
+	 * to the wall time, so time the thread spent descheduled or blocked can be told apart
+	 * (can also be enabled with -Dtca.timer.cputime=true). CPU time should be enabled 
+	 * before the workloads run.
+	 * @param cpuTimeEnabled
+	 * @return Returns false if the JVM does not support measuring the CPU time of the current thread
+	 */
+	public boolean enableCpuTime(boolean cpuTimeEnabled){
+		if(cpuTimeEnabled){
+			if(!threads.isCurrentThreadCpuTimeSupported()){
+				return false;
 			}
-			timeValue+=delta;
-			times.put(key, timeValue);
+			if(!threads.isThreadCpuTimeEnabled()){
+				threads.setThreadCpuTimeEnabled(true);
+			}
+		}
+		this.cpuTimeEnabled = cpuTimeEnabled;
+		return true;
+	}
+	
+	public boolean exclusiveTimeEnabled(){
+		return exclusiveTimeEnabled;
+	}
+	
+	/**
+	 * Enables recording the exclusive (self) time of each interval next to its inclusive
+	 * time (can also be enabled with -Dtca.timer.exclusive=true). The inclusive time of a
+	 * loop contains the time of the loops nested in it, directly or in the callees of its
+	 * body, so summing the inclusive times of all keys counts nested time more than once.
+	 * The exclusive time subtracts the time of the intervals opened and closed on the same
+	 * thread while the interval was open, so the exclusive times of all keys sum to the
+	 * time spent in the instrumented loops and the hot loop is the one with the largest
+	 * exclusive time. Exclusive time should be enabled before the workloads run.
+	 * 
+	 * If sampling is enabled the time of nested intervals that were not timed can not
+	 * be subtracted and is counted as the exclusive time of the enclosing interval.
+	 * @param exclusiveTimeEnabled
+	 */
+	public void enableExclusiveTime(boolean exclusiveTimeEnabled){
+		this.exclusiveTimeEnabled = exclusiveTimeEnabled;
+	}
+	
+	public synchronized boolean gcPauseTrackingEnabled(){
+		return gcPauses != null;
+	}
+	
+	/**
+	 * Enables attributing each stop the world garbage collection pause to the workload
+	 * size set with {@link #setSize(int)} when the pause started
+	 * (can also be enabled with -Dtca.timer.gcpauses=true). Pauses can not be attributed 
+	 * to sizes run in parallel with a {@link WorkloadScope}.
+	 * @param gcPauseTrackingEnabled
+	 */
+	public synchronized void enableGcPauseTracking(boolean gcPauseTrackingEnabled){
+		if(gcPauseTrackingEnabled && gcPauses == null){
+			gcPauses = new GcPauseMonitor(currentSize);
+		} else if(!gcPauseTrackingEnabled && gcPauses != null){
+			gcPauses.close();
+			gcPauses = null;
+		}
+	}
+	
+	public boolean histogramsEnabled(){
+		return histogramsEnabled;
+	}
+	
+	/**
+	 * Enables recording each timer interval into a latency histogram for its 
+	 * workload size and measurement key, in addition to the total time
+	 * (can also be enabled with -Dtca.timer.histograms=true). The histograms take
+	 * about 15 KB for each recorded workload size and key, shared by all threads.
+	 * @param histogramsEnabled
+	 */
+	public void enableHistograms(boolean histogramsEnabled){
+		this.histogramsEnabled = histogramsEnabled;
+	}
+	
+	public boolean samplingEnabled(){
+		return samplingPeriod > 1;
+	}
+	
+	/**
+	 * Enables timing only every Nth interval of each thread to bound the instrumentation
+	 * overhead on tight loops, the other intervals are only counted. Totals are then 
+	 * estimated from the timed sample (see {@link #getMeasurements()} and {@link #getConfidenceBounds()}).
+	 * Sampling should be enabled before the workloads run.
+	 * @param period The sampling period, 1 disables sampling
+	 * @param geometric If true, the gaps between sampled intervals are geometrically 
+	 * distributed with mean period instead of fixed, which avoids aliasing with periodic loop behavior
+	 */
+	public void enableSampling(int period, boolean geometric){
+		if(period < 1){
+			throw new IllegalArgumentException("Sampling period must be positive");
+		}
+		this.geometricSampling = geometric;
+		this.samplingPeriod = period;
+		if(period > 1){
+			sampled = true;
+		}
+	}
+	
+	// configures a private instance to do the same work in each probe as the given timer,
+	// GC pause tracking runs outside of the probes and is not copied
+	void configureLike(TCA_Timer timer){
+		enableCpuTime(timer.cpuTimeEnabled);
+		enableExclusiveTime(timer.exclusiveTimeEnabled);
+		enableHistograms(timer.histogramsEnabled);
+		if(timer.samplingPeriod > 1){
+			enableSampling(timer.samplingPeriod, timer.geometricSampling);
 		}
 	}
 	
-	public static synchronized void probe(String key) {
-		TCA_Timer instance = getInstance();
-		if(instance.lastTimestamp.containsKey(key)){
-			instance.stop(key);
+	// decides if the next interval of the thread is timed
+	private boolean sample(TimerStack stack){
+		int period = samplingPeriod;
+		if(period <= 1){
+			return true;
+		}
+		if(--stack.countdown > 0){
+			return false;
+		}
+		stack.countdown = geometricSampling ? stack.nextGeometric(period) : period;
+		return true;
+	}
+	
+	/**
+	 * Returns the total times, if sampling was used the totals are estimated by 
+	 * scaling the mean of the timed intervals of each cell by the number of intervals
+	 */
+	@Override
+	public MeasurementTable getMeasurements(){
+		if(!sampled){
+			return super.getMeasurements();
+		}
+		return estimate(super.getMeasurements(), samples.snapshot(), populations.snapshot());
+	}
+	
+	/**
+	 * Returns the times added since the previous call, estimated the same way 
+	 * as the totals if sampling was used
+	 */
+	@Override
+	public MeasurementTable getIntervalMeasurements(){
+		// the interval of every cell set is advanced together so they stay aligned
+		MeasurementTable sums = super.getIntervalMeasurements();
+		MeasurementTable sampleCounts = samples.interval();
+		MeasurementTable populationCounts = populations.interval();
+		if(!sampled){
+			return sums;
+		}
+		return estimate(sums, sampleCounts, populationCounts);
+	}
+	
+	/**
+	 * Returns the total CPU times of the calling threads during the timer intervals,
+	 * estimated the same way as the wall times if sampling was used (empty unless 
+	 * CPU time was enabled)
+	 * @return
+	 */
+	public MeasurementTable getCpuMeasurements(){
+		if(!sampled){
+			return cpuMeasurements.snapshot();
+		}
+		return estimate(cpuMeasurements.snapshot(), samples.snapshot(), populations.snapshot());
+	}
+	
+	/**
+	 * Returns the total exclusive (self) times, estimated the same way as the inclusive
+	 * times if sampling was used (empty unless exclusive time was enabled)
+	 * @return
+	 */
+	public MeasurementTable getExclusiveMeasurements(){
+		if(!sampled){
+			return exclusiveMeasurements.snapshot();
+		}
+		return estimate(exclusiveMeasurements.snapshot(), samples.snapshot(), populations.snapshot());
+	}
+	
+	/**
+	 * Returns the total stop the world garbage collection pause time (in nanoseconds)
+	 * by workload size (empty unless GC pause tracking was enabled)
+	 * @return
+	 */
+	public synchronized HashMap<Integer, Long> getGcPauseTimes(){
+		return gcPauses == null ? new HashMap<Integer, Long>() : gcPauses.getPauseTimes();
+	}
+	
+	/**
+	 * Returns the number of stop the world garbage collection pauses by workload 
+	 * size (empty unless GC pause tracking was enabled)
+	 * @return
+	 */
+	public synchronized HashMap<Integer, Long> getGcPauseCounts(){
+		return gcPauses == null ? new HashMap<Integer, Long>() : gcPauses.getPauseCounts();
+	}
+	
+	// scales the sums of the timed intervals to the number of intervals if sampling was used
+	private static MeasurementTable estimate(MeasurementTable sums, MeasurementTable sampleCounts, MeasurementTable populationCounts){
+		MeasurementTable estimates = new MeasurementTable();
+		for(int sizeIndex=0; sizeIndex<populationCounts.getSizeCount(); sizeIndex++){
+			int size = populationCounts.getSize(sizeIndex);
+			int estimateSizeIndex = estimates.addSize(size);
+			int sumsSizeIndex = sums.getSizeIndex(size);
+			int samplesSizeIndex = sampleCounts.getSizeIndex(size);
+			long[] population = populationCounts.getColumn(sizeIndex);
+			for(int id=0; id<population.length; id++){
+				long n = samplesSizeIndex == -1 ? 0 : sampleCounts.get(id, samplesSizeIndex);
+				if(n > 0 && sumsSizeIndex != -1){
+					double mean = (double) sums.get(id, sumsSizeIndex) / n;
+					estimates.add(id, estimateSizeIndex, Math.round(mean * population[id]));
+				}
+			}
+		}
+		return estimates;
+	}
+	
+	/**
+	 * Returns the half width of the 95% confidence interval of each estimated total
+	 * time, 0 for cells that were timed completely
+	 * 
+	 * The bound is 1.96 standard errors of the sampled total, using the sample
+	 * variance of the timed intervals and the finite population correction.
+	 * @return
+	 */
+	public MeasurementTable getConfidenceBounds(){
+		MeasurementTable bounds = new MeasurementTable();
+		if(!sampled){
+			return bounds;
+		}
+		MeasurementTable populationCounts = populations.snapshot();
+		TreeMap<Integer, LatencyHistogram[]> allHistograms = histograms.snapshot();
+		for(int sizeIndex=0; sizeIndex<populationCounts.getSizeCount(); sizeIndex++){
+			int size = populationCounts.getSize(sizeIndex);
+			int boundsSizeIndex = bounds.addSize(size);
+			LatencyHistogram[] sizeHistograms = allHistograms.get(size);
+			if(sizeHistograms == null){
+				continue;
+			}
+			long[] population = populationCounts.getColumn(sizeIndex);
+			for(int id=0; id<population.length && id<sizeHistograms.length; id++){
+				LatencyHistogram histogram = sizeHistograms[id];
+				if(histogram != null && histogram.getCount() > 0 && population[id] > histogram.getCount()){
+					double N = population[id];
+					double n = histogram.getCount();
+					double variance = N * N * (histogram.getVariance() / n) * (1.0 - (n / N));
+					bounds.add(id, boundsSizeIndex, Math.round(1.96 * Math.sqrt(variance)));
+				}
+			}
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Returns the latency histograms recorded for the given size by measurement key name
+	 * @param size
+	 * @return
+	 */
+	public HashMap<String, LatencyHistogram> getHistogramsForSize(Integer size){
+		return getKeyHistograms(histograms.snapshot(size));
+	}
+	
+	/**
+	 * Returns the latency histograms of every size by workload size and measurement key name,
+	 * merged in one pass (to read several sizes use this instead of {@link #getHistogramsForSize(Integer)})
+	 * @return
+	 */
+	public TreeMap<Integer, HashMap<String, LatencyHistogram>> getHistograms(){
+		TreeMap<Integer, HashMap<String, LatencyHistogram>> result = new TreeMap<Integer, HashMap<String, LatencyHistogram>>();
+		for(Entry<Integer, LatencyHistogram[]> entry : histograms.snapshot().entrySet()){
+			result.put(entry.getKey(), getKeyHistograms(entry.getValue()));
+		}
+		return result;
+	}
+	
+	// names the histograms of a size, null entries were never recorded
+	private HashMap<String, LatencyHistogram> getKeyHistograms(LatencyHistogram[] sizeHistograms){
+		HashMap<String, LatencyHistogram> result = new HashMap<String, LatencyHistogram>();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		for(int id=0; id<sizeHistograms.length; id++){
+			if(sizeHistograms[id] != null){
+				result.put(manifest.getKey(id), sizeHistograms[id]);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a CSV file of all the key latency histograms in the format
+	 * KEY,WORKLOAD_SIZE,COUNT,P50,P90,P99,MAX,HISTOGRAM
+	 * where HISTOGRAM is the Base64 encoded, mergeable serialized histogram
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveKeyHistograms(File outputFile) throws IOException {
+		FileWriter fw = new FileWriter(outputFile);
+		fw.write("KEY,WORKLOAD_SIZE,COUNT,P50,P90,P99,MAX,HISTOGRAM\n");
+		for(Entry<Integer, HashMap<String, LatencyHistogram>> sizeEntry : getHistograms().entrySet()){
+			int size = sizeEntry.getKey();
+			for(Entry<String, LatencyHistogram> entry : sizeEntry.getValue().entrySet()){
+				LatencyHistogram histogram = entry.getValue();
+				fw.write(entry.getKey() + "," + size + "," + histogram.getCount() 
+						+ "," + histogram.getValueAtPercentile(50) 
+						+ "," + histogram.getValueAtPercentile(90) 
+						+ "," + histogram.getValueAtPercentile(99) 
+						+ "," + histogram.getMax() 
+						+ "," + histogram.encode() + "\n");
+			}
+		}
+		fw.close();
+	}
+	
+	/**
+	 * Writes a CSV file of the inclusive and exclusive times of each key in the format
+	 * KEY,WORKLOAD_SIZE,INCLUSIVE_TIME,EXCLUSIVE_TIME
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveExclusiveTimes(File outputFile) throws IOException {
+		MeasurementTable inclusive = getMeasurements();
+		MeasurementTable exclusive = getExclusiveMeasurements();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("KEY,WORKLOAD_SIZE,INCLUSIVE_TIME,EXCLUSIVE_TIME\n");
+			for(int id=0; id<inclusive.getKeyCount(); id++){
+				for(int sizeIndex=0; sizeIndex<inclusive.getSizeCount(); sizeIndex++){
+					long time = inclusive.get(id, sizeIndex);
+					if(time == 0){
+						continue;
+					}
+					int size = inclusive.getSize(sizeIndex);
+					int exclusiveSizeIndex = exclusive.getSizeIndex(size);
+					long exclusiveTime = exclusiveSizeIndex == -1 ? 0 : exclusive.get(id, exclusiveSizeIndex);
+					writer.write(manifest.getKey(id) + "," + size + "," + time + "," + exclusiveTime + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Opens a new timer interval for the given measurement key ID on the calling thread
+	 * @param id
+	 */
+	public void start(int id){
+		TimerStack stack = stacks.get();
+		long serial = stack.invocations.current();
+		long timestamp = unwind(stack, serial, NOT_READ);
+		push(stack, id, serial, timestamp);
+	}
+	
+	// the timestamp is reused if the clock was already read by the probe
+	private void push(TimerStack stack, int id, long serial, long timestamp){
+		if(!sample(stack)){
+			stack.push(id, serial, SKIPPED, NO_CPU_TIME);
+		} else if(cpuTimeEnabled){
+			long cpuTimestamp = threads.getCurrentThreadCpuTime();
+			stack.push(id, serial, timestamp == NOT_READ ? System.nanoTime() : timestamp, cpuTimestamp);
 		} else {
-			instance.start(key);
+			stack.push(id, serial, timestamp == NOT_READ ? System.nanoTime() : timestamp, NO_CPU_TIME);
+		}
+	}
+	
+	/**
+	 * Closes the innermost open timer interval for the given measurement key ID
+	 * of the running invocation on the calling thread
+	 * @param id
+	 */
+	public void stop(int id){
+		TimerStack stack = stacks.get();
+		long serial = stack.invocations.current();
+		long timestamp = unwind(stack, serial, NOT_READ);
+		int index = stack.find(id, serial);
+		if(index != -1){
+			stop(stack, index, timestamp);
+		}
+	}
+	
+	// closes the intervals left open by invocations that already returned
+	private long unwind(TimerStack stack, long serial, long timestamp){
+		while(stack.depth > 0 && stack.serials[stack.depth - 1] > serial){
+			timestamp = pop(stack, timestamp);
+		}
+		return timestamp;
+	}
+	
+	// closes the interval at the given index, the intervals above it were left open by
+	// inner loops that exited without an exit probe (ex: by an exception caught in the loop)
+	// and are closed first, so their time is charged to the enclosing intervals
+	private long stop(TimerStack stack, int index, long timestamp){
+		while(stack.depth > index){
+			timestamp = pop(stack, timestamp);
+		}
+		return timestamp;
+	}
+	
+	// records the interval at the top of the stack and pops it, the clock is 
+	// only read if the timestamp was not read yet and the interval was timed
+	private long pop(TimerStack stack, long timestamp){
+		int index = stack.depth - 1;
+		int size = getCurrentSize();
+		int id = stack.ids[index];
+		if(stack.timestamps[index] == SKIPPED){
+			populations.add(size, id, 1);
+			stack.depth = index;
+			return timestamp;
+		}
+		if(timestamp == NOT_READ){
+			timestamp = System.nanoTime();
+		}
+		if(sampled){
+			populations.add(size, id, 1);
+			samples.add(size, id, 1);
 		}
+		long delta = timestamp - stack.timestamps[index];
+		measurements.add(size, id, delta);
+		if(stack.cpuTimestamps[index] != NO_CPU_TIME){
+			cpuMeasurements.add(size, id, threads.getCurrentThreadCpuTime() - stack.cpuTimestamps[index]);
+		}
+		if(histogramsEnabled || sampled){
+			histograms.record(size, id, delta);
+		}
+		if(exclusiveTimeEnabled){
+			exclusiveMeasurements.add(size, id, delta - stack.childTimes[index]);
+			if(index > 0){
+				stack.childTimes[index - 1] += delta;
+			}
+		}
+		stack.depth = index;
+		return timestamp;
+	}
+	
+	/**
+	 * Starts the next iteration of the loop with the given measurement key ID (probed at
+	 * the loop header), the open interval of the loop in the running invocation on the
+	 * calling thread is stopped and a new interval is started, so each iteration is timed
+	 * from one header visit to the next, and the last from the header to the loop's exit
+	 * @param id
+	 */
+	public static void probe(int id) {
+		WorkloadStop.check();
+		instance.iterate(id);
+	}
+	
+	void iterate(int id){
+		TimerStack stack = stacks.get();
+		long serial = stack.invocations.current();
+		long timestamp = unwind(stack, serial, NOT_READ);
+		int index = stack.find(id, serial);
+		if(index != -1){
+			timestamp = stop(stack, index, timestamp);
+		}
+		push(stack, id, serial, timestamp);
+	}
+	
+	/**
+	 * Stops the open interval of the loop with the given measurement key ID in the running
+	 * invocation on the calling thread (probed at the loop's exits, an exit reached without 
+	 * an open interval of the loop is ignored)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.stop(id);
+	}
+	
+	/**
+	 * Starts the next iteration of the loop with the given measurement key name
+	 * (supports instrumentation that links probes by name)
+	 * @param key
+	 */
+	public static void probe(String key) {
+		probe(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exit(String key) {
+		exit(ProbeManifest.getInstance().getId(key));
 	}
 }
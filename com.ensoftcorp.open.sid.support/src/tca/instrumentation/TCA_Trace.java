@@ -0,0 +1,302 @@
+package tca.instrumentation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Records a fixed width event (loop ID, thread, timestamp, workload size) for 
+ * every loop iteration into bounded per-thread ring buffers. A background thread 
+ * drains the buffers into a binary trace file of independently compressed chunks.
+ * If the writer falls behind and a thread's buffer is full, events are dropped 
+ * and counted instead of blocking the instrumented program. If the trace file 
+ * cannot be written, tracing stops and the file is closed.
+ * 
+ * The loop header is probed on every iteration and the loop's exits are probed
+ * when an execution of the loop ends, so the time between two executions of a
+ * loop is not taken for an iteration. Exit events store the complement of the
+ * loop ID (since version 2 of the trace format).
+ * 
+ * Traces are read back with {@link TraceReader}.
+ */
+public class TCA_Trace implements Probe {
+
+	static final int MAGIC = 0x54434154; // TCAT
+	static final int VERSION = 2;
+	static final int CHUNK_MAGIC = 0x43484E4B; // CHNK
+	static final int EVENT_LENGTH = 20; // int id, int thread, long timestamp, int size
+	
+	public static final int DEFAULT_BUFFER_CAPACITY = 1 << 16; // events per thread
+	public static final int CHUNK_EVENTS = 1 << 16; // events per compressed chunk
+	public static final long DRAIN_INTERVAL = 10; // milliseconds
+	
+	private static final TCA_Trace instance = new TCA_Trace();
+	
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_Trace(){}
+	
+	public static TCA_Trace getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * A single producer, single consumer ring buffer of events owned by one thread
+	 */
+	private static class TraceBuffer {
+		private final int thread;
+		private final int mask;
+		private final int[] ids;
+		private final long[] timestamps;
+		private final int[] sizes;
+		private final AtomicLong head = new AtomicLong(); // next event to drain
+		private final AtomicLong tail = new AtomicLong(); // next event to record
+		private final AtomicLong drops = new AtomicLong();
+		
+		private TraceBuffer(int thread, int capacity){
+			this.thread = thread;
+			this.mask = capacity - 1;
+			this.ids = new int[capacity];
+			this.timestamps = new long[capacity];
+			this.sizes = new int[capacity];
+		}
+		
+		private void record(int id, long timestamp, int size){
+			long t = tail.get();
+			if(t - head.get() > mask){
+				drops.lazySet(drops.get() + 1);
+				return;
+			}
+			int slot = (int) t & mask;
+			ids[slot] = id;
+			timestamps[slot] = timestamp;
+			sizes[slot] = size;
+			tail.lazySet(t + 1);
+		}
+	}
+	
+	private volatile boolean enabled = false;
+	private volatile int currentSize = 1;
+	private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+	private final ArrayList<TraceBuffer> buffers = new ArrayList<TraceBuffer>();
+	private final ThreadLocal<TraceBuffer> threadBuffer = new ThreadLocal<TraceBuffer>(){
+		@Override
+		protected TraceBuffer initialValue() {
+			synchronized (buffers) {
+				TraceBuffer buffer = new TraceBuffer(buffers.size(), bufferCapacity);
+				buffers.add(buffer);
+				return buffer;
+			}
+		}
+	};
+	
+	// guards the output and chunk, separate from the instance lock so stop() can join the writer
+	private final Object drainLock = new Object();
+	private DataOutputStream output;
+	private Thread writer;
+	private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_EVENTS * EVENT_LENGTH);
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] compressed = new byte[CHUNK_EVENTS * EVENT_LENGTH];
+	
+	public void setSize(int size){
+		currentSize = size;
+	}
+	
+	/**
+	 * Starts tracing to the given file with the default per-thread buffer capacity
+	 * @param traceFile
+	 * @throws IOException
+	 */
+	public void start(File traceFile) throws IOException {
+		start(traceFile, DEFAULT_BUFFER_CAPACITY);
+	}
+	
+	/**
+	 * Starts tracing to the given file
+	 * @param traceFile
+	 * @param bufferCapacity The number of events buffered per thread (rounded up to a power of two)
+	 * @throws IOException
+	 */
+	public synchronized void start(File traceFile, int bufferCapacity) throws IOException {
+		if(enabled){
+			throw new IllegalStateException("Trace is already started");
+		}
+		this.bufferCapacity = Integer.highestOneBit(Math.max(bufferCapacity, 2) * 2 - 1);
+		final DataOutputStream traceOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile)));
+		traceOutput.writeInt(MAGIC);
+		traceOutput.writeInt(VERSION);
+		synchronized (drainLock) {
+			// discard the events left by a trace that stopped on a write error
+			chunk.clear();
+			synchronized (buffers) {
+				for(TraceBuffer buffer : buffers){
+					buffer.head.lazySet(buffer.tail.get());
+				}
+			}
+			output = traceOutput;
+		}
+		writer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while(enabled){
+					try {
+						Thread.sleep(DRAIN_INTERVAL);
+					} catch (InterruptedException e) {}
+					try {
+						drain(false);
+					} catch (IOException e) {
+						System.err.println("Unable to write trace: " + e.getMessage());
+						enabled = false;
+						closeOutput(traceOutput);
+						return;
+					}
+				}
+			}
+		}, "TCA Trace Writer");
+		writer.setDaemon(true);
+		enabled = true;
+		writer.start();
+	}
+	
+	/**
+	 * Stops tracing, drains all of the buffered events and closes the trace file
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws IOException, InterruptedException {
+		if(writer == null){
+			return;
+		}
+		enabled = false;
+		writer.interrupt();
+		writer.join();
+		writer = null;
+		synchronized (drainLock) {
+			if(output == null){
+				// the writer failed and already closed the trace file
+				return;
+			}
+			try {
+				drain(true);
+			} finally {
+				closeOutput(output);
+			}
+		}
+	}
+	
+	// closes the given trace file if it is still the current one, the events were already
+	// flushed (or failed to write and were reported) so an error closing it is ignored
+	private void closeOutput(DataOutputStream traceOutput){
+		synchronized (drainLock) {
+			if(output == traceOutput && output != null){
+				try {
+					output.close();
+				} catch (IOException e) {
+					// nothing left to write
+				}
+				output = null;
+			}
+		}
+	}
+	
+	// copies the buffered events of all threads into chunks, partial chunks are only written when flushing
+	private void drain(boolean flush) throws IOException {
+		synchronized (drainLock) {
+			ArrayList<TraceBuffer> snapshot;
+			synchronized (buffers) {
+				snapshot = new ArrayList<TraceBuffer>(buffers);
+			}
+			for(TraceBuffer buffer : snapshot){
+				long head = buffer.head.get();
+				long tail = buffer.tail.get();
+				for(long event=head; event<tail; event++){
+					int slot = (int) event & buffer.mask;
+					chunk.putInt(buffer.ids[slot]);
+					chunk.putInt(buffer.thread);
+					chunk.putLong(buffer.timestamps[slot]);
+					chunk.putInt(buffer.sizes[slot]);
+					if(!chunk.hasRemaining()){
+						writeChunk();
+					}
+				}
+				buffer.head.lazySet(tail);
+			}
+			if(flush && chunk.position() > 0){
+				writeChunk();
+			}
+			if(flush){
+				output.flush();
+			}
+		}
+	}
+	
+	// chunk format: CHUNK_MAGIC, event count, total dropped events, compressed length, compressed events
+	private void writeChunk() throws IOException {
+		int length = chunk.position();
+		deflater.reset();
+		deflater.setInput(chunk.array(), 0, length);
+		deflater.finish();
+		int compressedLength = 0;
+		while(!deflater.finished()){
+			if(compressedLength == compressed.length){
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+		output.writeInt(CHUNK_MAGIC);
+		output.writeInt(length / EVENT_LENGTH);
+		output.writeLong(getDroppedEvents());
+		output.writeInt(compressedLength);
+		output.write(compressed, 0, compressedLength);
+		chunk.clear();
+	}
+	
+	/**
+	 * Returns the number of events that were dropped because a thread's buffer was full
+	 * @return
+	 */
+	public long getDroppedEvents(){
+		long drops = 0;
+		synchronized (buffers) {
+			for(TraceBuffer buffer : buffers){
+				drops += buffer.drops.get();
+			}
+		}
+		return drops;
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	/**
+	 * Records an iteration event of the loop with the given measurement key ID
+	 * @param id
+	 */
+	public static void probe(int id) {
+		WorkloadStop.check();
+		instance.record(id);
+	}
+	
+	/**
+	 * Records the end of an execution of the loop with the given measurement key ID
+	 * (probed at the loop's exits)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.record(~id);
+	}
+	
+	void record(int id){
+		if(enabled){
+			threadBuffer.get().record(id, System.nanoTime(), WorkloadScope.getSize(currentSize));
+		}
+	}
+	
+}
@@ -0,0 +1,389 @@
+package tca.instrumentation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records the distribution of trip counts (loop header visits per execution of
+ * the loop) for each loop and workload size
+ *
+ * The total iterations of a loop do not tell a loop that runs once with n^2 trips
+ * from a loop that runs n times with n trips each, the trip counts per execution do.
+ * The loop is probed at its entry, at its header and at its exits. Each thread keeps
+ * a stack of the loop executions in progress, an execution starts at the entry probe
+ * and ends at an exit probe, and its trip count is added to a histogram with one bucket
+ * for each power of two. Recursive executions of a loop push their own frames: each
+ * frame is tagged with the {@link TCA_Invocation} that started it, the probes only find
+ * the executions of the running invocation, and executions left open by invocations
+ * that already returned are ended by the next probe of the thread.
+ *
+ * The probes tolerate missing entries and exits. A header visit without an execution
+ * in progress starts one, and an exit probe reached without the loop's execution in
+ * progress (on a path that never entered the loop) is ignored. Executions left open
+ * by inner loops that exited without an exit probe are ended when an enclosing loop
+ * visits its header or exits.
+ *
+ * The stacks grow by doubling and the histograms are primitive cells, so steady state
+ * probes do not allocate.
+ *
+ * The probe is disabled by default, so its stack keeping does not add to the measured
+ * times of the other probes, the probes only read a flag until it is enabled with
+ * {@link #enable(boolean)} or -Dtca.tripcount=true.
+ */
+public class TCA_TripCount extends MeasurementProbe {
+	
+	/**
+	 * The number of histogram buckets, bucket 0 holds executions with 0 trips and
+	 * bucket b holds executions with 2^(b-1) to 2^b - 1 trips
+	 */
+	public static final int BUCKETS = 65;
+	
+	// bounds the frames leaked by loops that repeatedly exit by throwing
+	private static final int MAX_DEPTH = 4096;
+	
+	private static final TCA_TripCount instance = new TCA_TripCount();
+	
+	// package visible so calibration can measure the probe path on a private instance
+	TCA_TripCount(){}
+	
+	public static TCA_TripCount getInstance() {
+		return instance;
+	}
+	
+	static {
+		if(Boolean.getBoolean("tca.tripcount")){
+			instance.enable(true);
+		}
+	}
+	
+	/**
+	 * A stack of the loop executions in progress on a single thread
+	 */
+	private static class ExecutionStack {
+		private final TCA_Invocation.InvocationStack invocations = TCA_Invocation.getInstance().getStack();
+		private int[] ids = new int[16];
+		private long[] serials = new long[16];
+		private long[] trips = new long[16];
+		private int depth = 0;
+		
+		private void push(int id, long serial, long tripCount){
+			if(depth == ids.length){
+				ids = Arrays.copyOf(ids, depth * 2);
+				serials = Arrays.copyOf(serials, depth * 2);
+				trips = Arrays.copyOf(trips, depth * 2);
+			}
+			ids[depth] = id;
+			serials[depth] = serial;
+			trips[depth] = tripCount;
+			depth++;
+		}
+		
+		// returns the index of the innermost execution of the given id in the invocation with
+		// the given serial, or -1 (the executions of returned invocations must be ended first)
+		private int find(int id, long serial){
+			for(int i=depth-1; i>=0 && serials[i] == serial; i--){
+				if(ids[i] == id){
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		// returns the index of the lowest execution of an invocation that already returned
+		private int findReturned(long serial){
+			int index = depth;
+			while(index > 0 && serials[index - 1] > serial){
+				index--;
+			}
+			return index;
+		}
+	}
+	
+	private final ThreadLocal<ExecutionStack> stacks = new ThreadLocal<ExecutionStack>(){
+		@Override
+		protected ExecutionStack initialValue() {
+			return new ExecutionStack();
+		}
+	};
+	
+	// executions by trip count bucket, indexed by id * BUCKETS + bucket
+	private final ProbeCells histograms = new ProbeCells();
+	
+	// total trips of the recorded executions, indexed by id
+	private final ProbeCells trips = new ProbeCells();
+	
+	private volatile boolean enabled = false;
+	
+	/**
+	 * Enables or disables the probe
+	 * @param enabled
+	 */
+	public void enable(boolean enabled){
+		this.enabled = enabled;
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	public void setSize(int size){
+		currentSize = size;
+	}
+	
+	/**
+	 * Returns the histogram bucket of the given trip count
+	 * @param tripCount
+	 * @return
+	 */
+	public static int getBucket(long tripCount){
+		return 64 - Long.numberOfLeadingZeros(tripCount);
+	}
+	
+	/**
+	 * Returns the smallest trip count of the given histogram bucket
+	 * @param bucket
+	 * @return
+	 */
+	public static long getBucketMinimum(int bucket){
+		return bucket == 0 ? 0 : 1L << (bucket - 1);
+	}
+	
+	/**
+	 * Returns the largest trip count of the given histogram bucket
+	 * @param bucket
+	 * @return
+	 */
+	public static long getBucketMaximum(int bucket){
+		return bucket == 0 ? 0 : bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+	
+	/**
+	 * Starts an execution of the loop with the given measurement key ID (probed on loop entry)
+	 * @param id
+	 */
+	public static void enter(int id) {
+		instance.start(id);
+	}
+	
+	/**
+	 * Counts a trip of the innermost execution of the loop with the given measurement key ID
+	 * (probed at the loop header)
+	 * @param id
+	 */
+	public static void iterate(int id) {
+		WorkloadStop.check();
+		instance.trip(id);
+	}
+	
+	/**
+	 * Ends the innermost execution of the loop with the given measurement key ID (probed on loop exit)
+	 * @param id
+	 */
+	public static void exit(int id) {
+		instance.end(id);
+	}
+	
+	public static void enter(String key) {
+		enter(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void iterate(String key) {
+		iterate(ProbeManifest.getInstance().getId(key));
+	}
+	
+	public static void exit(String key) {
+		exit(ProbeManifest.getInstance().getId(key));
+	}
+	
+	void start(int id){
+		if(!enabled){
+			return;
+		}
+		ExecutionStack stack = stacks.get();
+		long serial = unwind(stack);
+		if(stack.depth == MAX_DEPTH){
+			record(stack, 0);
+		}
+		stack.push(id, serial, 0);
+	}
+	
+	void trip(int id){
+		if(!enabled){
+			return;
+		}
+		ExecutionStack stack = stacks.get();
+		long serial = unwind(stack);
+		int index = stack.find(id, serial);
+		if(index == -1){
+			// the loop was entered on a path without an entry probe
+			if(stack.depth == MAX_DEPTH){
+				record(stack, 0);
+			}
+			stack.push(id, serial, 1);
+		} else {
+			// executions above the index are inner loops that exited without an exit probe
+			if(index != stack.depth - 1){
+				record(stack, index + 1);
+			}
+			stack.trips[index]++;
+		}
+	}
+	
+	void end(int id){
+		if(!enabled){
+			return;
+		}
+		ExecutionStack stack = stacks.get();
+		long serial = unwind(stack);
+		int index = stack.find(id, serial);
+		if(index != -1){
+			record(stack, index);
+		}
+	}
+	
+	// ends the executions left open by invocations that already returned,
+	// returns the serial of the running invocation
+	private long unwind(ExecutionStack stack){
+		long serial = stack.invocations.current();
+		if(stack.depth > 0 && stack.serials[stack.depth - 1] > serial){
+			record(stack, stack.findReturned(serial));
+		}
+		return serial;
+	}
+	
+	// records and pops the executions from the top of the stack down to the given index
+	private void record(ExecutionStack stack, int index){
+		int size = getCurrentSize();
+		for(int i=stack.depth-1; i>=index; i--){
+			int id = stack.ids[i];
+			long tripCount = stack.trips[i];
+			measurements.add(size, id, 1);
+			trips.add(size, id, tripCount);
+			histograms.add(size, (id * BUCKETS) + getBucket(tripCount), 1);
+		}
+		stack.depth = index;
+	}
+	
+	/**
+	 * Returns the number of recorded loop executions by workload size and measurement key ID
+	 * (the same as {@link #getMeasurements()})
+	 * @return
+	 */
+	public MeasurementTable getExecutions(){
+		return getMeasurements();
+	}
+	
+	/**
+	 * Returns the total trips of the recorded loop executions by workload size and measurement key ID
+	 * @return
+	 */
+	public MeasurementTable getTrips(){
+		return trips.snapshot();
+	}
+	
+	/**
+	 * Returns the trip count histograms by workload size, the histogram of a measurement
+	 * key ID is stored in the rows id * BUCKETS to id * BUCKETS + BUCKETS - 1
+	 * @return
+	 */
+	public MeasurementTable getHistograms(){
+		return histograms.snapshot();
+	}
+	
+	/**
+	 * Returns the trip count histogram of the given loop and workload size
+	 * @param key
+	 * @param size
+	 * @return The number of executions in each bucket
+	 */
+	public long[] getHistogram(String key, int size){
+		long[] histogram = new long[BUCKETS];
+		int id = ProbeManifest.getInstance().findId(key);
+		MeasurementTable table = getHistograms();
+		int sizeIndex = table.getSizeIndex(size);
+		if(id >= 0 && sizeIndex != -1){
+			for(int bucket=0; bucket<BUCKETS; bucket++){
+				histogram[bucket] = table.get((id * BUCKETS) + bucket, sizeIndex);
+			}
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Writes a CSV file of the trip count summary of each loop in the format
+	 * KEY,WORKLOAD_SIZE,EXECUTIONS,TOTAL_TRIPS,MEAN_TRIPS,MAX_TRIPS
+	 * where MAX_TRIPS is the upper bound of the largest non-empty bucket
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveTripCounts(File outputFile) throws IOException {
+		MeasurementTable executions = getExecutions();
+		MeasurementTable trips = getTrips();
+		MeasurementTable histograms = getHistograms();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("KEY,WORKLOAD_SIZE,EXECUTIONS,TOTAL_TRIPS,MEAN_TRIPS,MAX_TRIPS\n");
+			for(int id=0; id<executions.getKeyCount(); id++){
+				for(int sizeIndex=0; sizeIndex<executions.getSizeCount(); sizeIndex++){
+					long count = executions.get(id, sizeIndex);
+					if(count == 0){
+						continue;
+					}
+					int size = executions.getSize(sizeIndex);
+					// the tables are separate snapshots, so look the size up in each
+					int tripsSizeIndex = trips.getSizeIndex(size);
+					long total = tripsSizeIndex == -1 ? 0 : trips.get(id, tripsSizeIndex);
+					int histogramSizeIndex = histograms.getSizeIndex(size);
+					int maxBucket = 0;
+					for(int bucket=0; histogramSizeIndex != -1 && bucket<BUCKETS; bucket++){
+						if(histograms.get((id * BUCKETS) + bucket, histogramSizeIndex) != 0){
+							maxBucket = bucket;
+						}
+					}
+					writer.write(manifest.getKey(id) + "," + size + "," + count + "," + total + ","
+							+ ((double) total / count) + "," + getBucketMaximum(maxBucket) + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes a CSV file of the non-empty trip count histogram buckets of each loop in the format
+	 * KEY,WORKLOAD_SIZE,MIN_TRIPS,MAX_TRIPS,EXECUTIONS
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveTripCountHistograms(File outputFile) throws IOException {
+		MeasurementTable histograms = getHistograms();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("KEY,WORKLOAD_SIZE,MIN_TRIPS,MAX_TRIPS,EXECUTIONS\n");
+			int keyCount = (histograms.getKeyCount() + BUCKETS - 1) / BUCKETS;
+			for(int id=0; id<keyCount; id++){
+				String key = null;
+				for(int sizeIndex=0; sizeIndex<histograms.getSizeCount(); sizeIndex++){
+					for(int bucket=0; bucket<BUCKETS; bucket++){
+						long count = histograms.get((id * BUCKETS) + bucket, sizeIndex);
+						if(count != 0){
+							if(key == null){
+								key = manifest.getKey(id);
+							}
+							writer.write(key + "," + histograms.getSize(sizeIndex) + "," + getBucketMinimum(bucket)
+									+ "," + getBucketMaximum(bucket) + "," + count + "\n");
+						}
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+}
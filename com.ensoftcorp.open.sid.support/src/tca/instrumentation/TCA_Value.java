@@ -0,0 +1,446 @@
+package tca.instrumentation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records cheap summaries of values observed at a probe: the type, the length
+ * (of arrays, collections, maps and strings), optionally a hash of a strided sample
+ * of the elements, and optionally a short prefix of the elements of primitive arrays.
+ *
+ * Summaries are captured on the calling thread into bounded per-thread ring buffers
+ * and a background thread writes them to a CSV file in the format
+ * KEY,THREAD,TIMESTAMP,WORKLOAD_SIZE,TYPE,LENGTH,HASH,PREFIX
+ * If the writer falls behind and a thread's buffer is full, the summary is dropped
+ * and counted for its probe instead of blocking the instrumented program.
+ */
+public class TCA_Value implements Probe {
+	
+	public static final int DEFAULT_BUFFER_CAPACITY = 1 << 12; // summaries per thread
+	public static final int MAX_PREFIX_LENGTH = 16;
+	public static final int HASH_SAMPLES = 32; // elements hashed per array
+	public static final long DRAIN_INTERVAL = 10; // milliseconds
+	
+	private static final TCA_Value instance = new TCA_Value();
+	
+	private TCA_Value(){}
+	
+	public static TCA_Value getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * A single producer, single consumer ring buffer of value summaries owned by one thread
+	 */
+	private static class ValueBuffer {
+		private final int thread;
+		private final int mask;
+		private final int[] ids;
+		private final long[] timestamps;
+		private final int[] sizes;
+		private final Class<?>[] types;
+		private final int[] lengths;
+		private final long[] hashes;
+		private final int[] prefixLengths;
+		private final long[] prefixes; // MAX_PREFIX_LENGTH raw elements per slot
+		private final AtomicLong head = new AtomicLong(); // next summary to write
+		private final AtomicLong tail = new AtomicLong(); // next summary to record
+		
+		private ValueBuffer(int thread, int capacity){
+			this.thread = thread;
+			this.mask = capacity - 1;
+			this.ids = new int[capacity];
+			this.timestamps = new long[capacity];
+			this.sizes = new int[capacity];
+			this.types = new Class<?>[capacity];
+			this.lengths = new int[capacity];
+			this.hashes = new long[capacity];
+			this.prefixLengths = new int[capacity];
+			this.prefixes = new long[capacity * MAX_PREFIX_LENGTH];
+		}
+	}
+	
+	private volatile boolean enabled = false;
+	private volatile int currentSize = 1;
+	private volatile int prefixLength = 0;
+	private volatile boolean hashingEnabled = false;
+	private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+	
+	private final ArrayList<ValueBuffer> buffers = new ArrayList<ValueBuffer>();
+	private final ThreadLocal<ValueBuffer> threadBuffer = new ThreadLocal<ValueBuffer>(){
+		@Override
+		protected ValueBuffer initialValue() {
+			synchronized (buffers) {
+				ValueBuffer buffer = new ValueBuffer(buffers.size(), bufferCapacity);
+				buffers.add(buffer);
+				return buffer;
+			}
+		}
+	};
+	
+	// dropped summaries indexed by workload size and measurement key ID
+	private final ProbeCells drops = new ProbeCells();
+	
+	// guards the output, separate from the instance lock so stop() can join the writer
+	private final Object drainLock = new Object();
+	private BufferedWriter output;
+	private Thread writer;
+	private final StringBuilder line = new StringBuilder();
+	
+	public void setSize(int size){
+		currentSize = size;
+	}
+	
+	public int getPrefixLength(){
+		return prefixLength;
+	}
+	
+	/**
+	 * Sets the number of leading elements of primitive arrays to record (0 records none)
+	 * @param prefixLength
+	 */
+	public void setPrefixLength(int prefixLength){
+		if(prefixLength < 0 || prefixLength > MAX_PREFIX_LENGTH){
+			throw new IllegalArgumentException("Prefix length must be between 0 and " + MAX_PREFIX_LENGTH);
+		}
+		this.prefixLength = prefixLength;
+	}
+	
+	public boolean hashingEnabled(){
+		return hashingEnabled;
+	}
+	
+	/**
+	 * Enables recording a hash of each value, arrays are hashed from their length and
+	 * up to {@link #HASH_SAMPLES} evenly spaced elements so the cost does not grow with
+	 * the array, other objects are hashed by identity
+	 * @param hashingEnabled
+	 */
+	public void enableHashing(boolean hashingEnabled){
+		this.hashingEnabled = hashingEnabled;
+	}
+	
+	/**
+	 * Starts recording value summaries to the given file with the default per-thread buffer capacity
+	 * @param valuesFile
+	 * @throws IOException
+	 */
+	public void start(File valuesFile) throws IOException {
+		start(valuesFile, DEFAULT_BUFFER_CAPACITY);
+	}
+	
+	/**
+	 * Starts recording value summaries to the given file
+	 * @param valuesFile
+	 * @param bufferCapacity The number of summaries buffered per thread (rounded up to a power of two)
+	 * @throws IOException
+	 */
+	public synchronized void start(File valuesFile, int bufferCapacity) throws IOException {
+		if(enabled){
+			throw new IllegalStateException("Value recording is already started");
+		}
+		this.bufferCapacity = Integer.highestOneBit(Math.max(bufferCapacity, 2) * 2 - 1);
+		output = new BufferedWriter(new FileWriter(valuesFile));
+		output.write("KEY,THREAD,TIMESTAMP,WORKLOAD_SIZE,TYPE,LENGTH,HASH,PREFIX\n");
+		writer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while(enabled){
+					try {
+						Thread.sleep(DRAIN_INTERVAL);
+					} catch (InterruptedException e) {}
+					try {
+						drain();
+					} catch (IOException e) {
+						System.err.println("Unable to write values: " + e.getMessage());
+						enabled = false;
+					}
+				}
+			}
+		}, "TCA Value Writer");
+		writer.setDaemon(true);
+		enabled = true;
+		writer.start();
+	}
+	
+	/**
+	 * Stops recording, writes all of the buffered summaries and closes the file
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws IOException, InterruptedException {
+		if(output == null){
+			return;
+		}
+		enabled = false;
+		writer.interrupt();
+		writer.join();
+		drain();
+		output.close();
+		output = null;
+		HashMap<String, Long> droppedValues = getDroppedValues();
+		if(!droppedValues.isEmpty()){
+			System.err.println("Warning: value summaries were dropped while recording " + droppedValues);
+		}
+	}
+	
+	public boolean isEnabled(){
+		return enabled;
+	}
+	
+	// writes the buffered summaries of all threads
+	private void drain() throws IOException {
+		synchronized (drainLock) {
+			ArrayList<ValueBuffer> snapshot;
+			synchronized (buffers) {
+				snapshot = new ArrayList<ValueBuffer>(buffers);
+			}
+			ProbeManifest manifest = ProbeManifest.getInstance();
+			for(ValueBuffer buffer : snapshot){
+				long head = buffer.head.get();
+				long tail = buffer.tail.get();
+				for(long summary=head; summary<tail; summary++){
+					int slot = (int) summary & buffer.mask;
+					Class<?> type = buffer.types[slot];
+					buffer.types[slot] = null; // do not hold on to the class
+					line.setLength(0);
+					line.append(manifest.getKey(buffer.ids[slot])).append(',');
+					line.append(buffer.thread).append(',');
+					line.append(buffer.timestamps[slot]).append(',');
+					line.append(buffer.sizes[slot]).append(',');
+					line.append(getTypeName(type)).append(',');
+					if(buffer.lengths[slot] >= 0){
+						line.append(buffer.lengths[slot]);
+					}
+					line.append(',');
+					if(hashingEnabled){
+						line.append(Long.toHexString(buffer.hashes[slot]));
+					}
+					line.append(',');
+					appendPrefix(line, type, buffer.prefixes, slot * MAX_PREFIX_LENGTH, buffer.prefixLengths[slot]);
+					line.append('\n');
+					output.append(line);
+				}
+				buffer.head.lazySet(tail);
+			}
+			output.flush();
+		}
+	}
+	
+	// readable type names (int[] instead of [I), anonymous and local classes have no canonical name
+	private static String getTypeName(Class<?> type){
+		if(type == null){
+			return "null";
+		}
+		String name = type.getCanonicalName();
+		return name != null ? name : type.getName();
+	}
+	
+	// formats the raw prefix elements as a space separated list
+	private static void appendPrefix(StringBuilder line, Class<?> type, long[] prefixes, int offset, int length){
+		for(int i=0; i<length; i++){
+			if(i > 0){
+				line.append(' ');
+			}
+			long raw = prefixes[offset + i];
+			if(type == double[].class){
+				line.append(Double.longBitsToDouble(raw));
+			} else if(type == float[].class){
+				line.append(Float.intBitsToFloat((int) raw));
+			} else if(type == boolean[].class){
+				line.append(raw != 0);
+			} else if(type == char[].class){
+				line.append((char) raw);
+			} else {
+				line.append(raw);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of summaries dropped because a thread's buffer was full, by measurement key
+	 * @return
+	 */
+	public HashMap<String, Long> getDroppedValues(){
+		HashMap<String, Long> result = new HashMap<String, Long>();
+		MeasurementTable table = drops.snapshot();
+		ProbeManifest manifest = ProbeManifest.getInstance();
+		for(int sizeIndex=0; sizeIndex<table.getSizeCount(); sizeIndex++){
+			long[] column = table.getColumn(sizeIndex);
+			for(int id=0; id<column.length; id++){
+				if(column[id] != 0){
+					String key = manifest.getKey(id);
+					Long count = result.get(key);
+					result.put(key, (count == null ? 0L : count) + column[id]);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Records a summary of the value observed at the probe with the given measurement key ID
+	 * @param id
+	 * @param value
+	 */
+	public static void probe(int id, Object value) {
+		instance.record(id, value);
+	}
+	
+	/**
+	 * Records a summary of the value observed at the probe with the given measurement key
+	 * @param key
+	 * @param value
+	 */
+	public static void probe(String key, Object value) {
+		probe(ProbeManifest.getInstance().getId(key), value);
+	}
+	
+	void record(int id, Object value){
+		if(!enabled){
+			return;
+		}
+		ValueBuffer buffer = threadBuffer.get();
+		int size = WorkloadScope.getSize(currentSize);
+		long t = buffer.tail.get();
+		if(t - buffer.head.get() > buffer.mask){
+			drops.add(size, id, 1);
+			return;
+		}
+		int slot = (int) t & buffer.mask;
+		buffer.ids[slot] = id;
+		buffer.timestamps[slot] = System.nanoTime();
+		buffer.sizes[slot] = size;
+		buffer.types[slot] = value == null ? null : value.getClass();
+		buffer.lengths[slot] = getLength(value);
+		buffer.prefixLengths[slot] = value == null ? 0 : copyPrefix(value, buffer.prefixes, slot * MAX_PREFIX_LENGTH, prefixLength);
+		buffer.hashes[slot] = hashingEnabled ? hash(value) : 0;
+		buffer.tail.lazySet(t + 1);
+	}
+	
+	// returns the length of arrays, collections, maps and strings, or -1
+	private static int getLength(Object value){
+		if(value == null){
+			return -1;
+		} else if(value.getClass().isArray()){
+			return java.lang.reflect.Array.getLength(value);
+		} else if(value instanceof Collection){
+			return ((Collection<?>) value).size();
+		} else if(value instanceof Map){
+			return ((Map<?,?>) value).size();
+		} else if(value instanceof CharSequence){
+			return ((CharSequence) value).length();
+		}
+		return -1;
+	}
+	
+	// copies up to the given number of leading elements of a primitive array as raw longs
+	private static int copyPrefix(Object value, long[] prefixes, int offset, int prefixLength){
+		if(prefixLength == 0){
+			return 0;
+		}
+		if(value instanceof int[]){
+			int[] values = (int[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = values[i];
+			}
+			return length;
+		} else if(value instanceof long[]){
+			long[] values = (long[]) value;
+			int length = Math.min(prefixLength, values.length);
+			System.arraycopy(values, 0, prefixes, offset, length);
+			return length;
+		} else if(value instanceof double[]){
+			double[] values = (double[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = Double.doubleToRawLongBits(values[i]);
+			}
+			return length;
+		} else if(value instanceof float[]){
+			float[] values = (float[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = Float.floatToRawIntBits(values[i]);
+			}
+			return length;
+		} else if(value instanceof short[]){
+			short[] values = (short[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = values[i];
+			}
+			return length;
+		} else if(value instanceof byte[]){
+			byte[] values = (byte[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = values[i];
+			}
+			return length;
+		} else if(value instanceof char[]){
+			char[] values = (char[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = values[i];
+			}
+			return length;
+		} else if(value instanceof boolean[]){
+			boolean[] values = (boolean[]) value;
+			int length = Math.min(prefixLength, values.length);
+			for(int i=0; i<length; i++){
+				prefixes[offset + i] = values[i] ? 1 : 0;
+			}
+			return length;
+		}
+		return 0;
+	}
+	
+	// hashes the length and up to HASH_SAMPLES evenly spaced elements of arrays, other values by identity
+	private static long hash(Object value){
+		if(value == null){
+			return 0;
+		}
+		if(!value.getClass().isArray()){
+			return System.identityHashCode(value);
+		}
+		int length = java.lang.reflect.Array.getLength(value);
+		long hash = length;
+		int stride = Math.max(1, length / HASH_SAMPLES);
+		for(int i=0; i<length; i+=stride){
+			hash = (hash * 0x100000001B3L) ^ getElementBits(value, i);
+		}
+		return hash;
+	}
+	
+	private static long getElementBits(Object array, int index){
+		if(array instanceof int[]){
+			return ((int[]) array)[index];
+		} else if(array instanceof long[]){
+			return ((long[]) array)[index];
+		} else if(array instanceof double[]){
+			return Double.doubleToLongBits(((double[]) array)[index]);
+		} else if(array instanceof float[]){
+			return Float.floatToIntBits(((float[]) array)[index]);
+		} else if(array instanceof short[]){
+			return ((short[]) array)[index];
+		} else if(array instanceof byte[]){
+			return ((byte[]) array)[index];
+		} else if(array instanceof char[]){
+			return ((char[]) array)[index];
+		} else if(array instanceof boolean[]){
+			return ((boolean[]) array)[index] ? 1 : 0;
+		} else {
+			return System.identityHashCode(((Object[]) array)[index]);
+		}
+	}
+	
+}
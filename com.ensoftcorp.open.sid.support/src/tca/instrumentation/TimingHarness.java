@@ -0,0 +1,348 @@
+package tca.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Times a sweep of workload sizes the way a benchmark harness would, with warmup
+ * iterations, repeated measurement iterations and forked JVMs, so the timer profile
+ * is taken in steady state instead of from a single cold run of each size
+ *
+ * Each fork is a new JVM started with the driver's class path and JVM arguments, the
+ * forks run one after the other so they do not compete for the machine. A fork runs
+ * every workload size in turn, first the warmup iterations, whose times are discarded
+ * (JIT compilation and class loading land in them), then the measurement iterations.
+ * The sample of a measurement iteration is the wall time of the workload's run, timed
+ * around the run with {@link System#nanoTime()} (the loop times the {@link TCA_Timer}
+ * records would count nested loops once for each enclosing loop). The probes still
+ * attribute their measurements to the size being run. With no forks the iterations 
+ * run in this JVM.
+ *
+ * Each size is summarized by the median of its samples over all forks, with the 95%
+ * confidence interval of the median from the order statistics of the samples, which
+ * does not assume the timings are normally distributed.
+ */
+public class TimingHarness {
+	
+	/**
+	 * The system property that passes a forked JVM its fork number
+	 */
+	public static final String FORK_PROPERTY = "tca.harness.fork";
+	
+	/**
+	 * The system property that passes a forked JVM the harness directory
+	 */
+	public static final String DIRECTORY_PROPERTY = "tca.harness.directory";
+	
+	public static final int DEFAULT_WARMUP_ITERATIONS = 5;
+	public static final int DEFAULT_MEASUREMENT_ITERATIONS = 10;
+	public static final int DEFAULT_FORKS = 3;
+	
+	/**
+	 * A workload run by the harness
+	 */
+	public static interface Workload {
+		/**
+		 * Runs the workload of the given size once
+		 * @param size
+		 * @throws Exception
+		 */
+		public void run(int size) throws Exception;
+	}
+	
+	private final Class<?> mainClass;
+	private final File directory;
+	private int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+	private int measurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+	private int forks = DEFAULT_FORKS;
+	
+	// the measurement samples of each workload size over all forks
+	private final TreeMap<Integer, ArrayList<Long>> samples = new TreeMap<Integer, ArrayList<Long>>();
+	
+	/**
+	 * Creates a harness that runs the main method of the given class in each forked JVM
+	 * @param mainClass
+	 * @param directory The directory for the output and samples of the forks
+	 */
+	public TimingHarness(Class<?> mainClass, File directory){
+		this.mainClass = mainClass;
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns true if this JVM is a fork of a harness
+	 * @return
+	 */
+	public static boolean isFork(){
+		return System.getProperty(FORK_PROPERTY) != null;
+	}
+	
+	public int getWarmupIterations(){
+		return warmupIterations;
+	}
+	
+	public void setWarmupIterations(int warmupIterations){
+		if(warmupIterations < 0){
+			throw new IllegalArgumentException("Warmup iterations can not be negative");
+		}
+		this.warmupIterations = warmupIterations;
+	}
+	
+	public int getMeasurementIterations(){
+		return measurementIterations;
+	}
+	
+	public void setMeasurementIterations(int measurementIterations){
+		if(measurementIterations < 1){
+			throw new IllegalArgumentException("A harness needs at least one measurement iteration");
+		}
+		this.measurementIterations = measurementIterations;
+	}
+	
+	public int getForks(){
+		return forks;
+	}
+	
+	/**
+	 * Sets the number of forked JVMs, 0 runs the iterations in this JVM
+	 * @param forks
+	 */
+	public void setForks(int forks){
+		if(forks < 0){
+			throw new IllegalArgumentException("Forks can not be negative");
+		}
+		this.forks = forks;
+	}
+	
+	/**
+	 * Runs the harness for the workload sizes from 1 to the given maximum size. In a
+	 * forked JVM the iterations of the fork are run and its samples are saved for the
+	 * parent, otherwise the forks are started and their samples are collected (or the
+	 * iterations are run in this JVM if there are no forks).
+	 * @param maximumSize
+	 * @param workload
+	 * @throws Exception
+	 */
+	public void run(int maximumSize, Workload workload) throws Exception {
+		samples.clear();
+		if(isFork()){
+			TreeMap<Integer, ArrayList<Long>> forkSamples = iterate(maximumSize, workload);
+			File forkDirectory = new File(System.getProperty(DIRECTORY_PROPERTY, "."));
+			saveSamples(forkSamples, getSamplesFile(forkDirectory, Integer.parseInt(System.getProperty(FORK_PROPERTY))));
+			return;
+		}
+		if(forks == 0){
+			addSamples(iterate(maximumSize, workload));
+			return;
+		}
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create harness directory " + directory.getAbsolutePath());
+		}
+		for(int fork=1; fork<=forks; fork++){
+			if(runFork(fork)){
+				addSamples(loadSamples(getSamplesFile(directory, fork)));
+			}
+		}
+	}
+	
+	// runs the warmup and measurement iterations of every size in this JVM
+	private TreeMap<Integer, ArrayList<Long>> iterate(int maximumSize, Workload workload) throws Exception {
+		TreeMap<Integer, ArrayList<Long>> result = new TreeMap<Integer, ArrayList<Long>>();
+		TCA_Timer timer = TCA_Timer.getInstance();
+		for(int size=1; size<=maximumSize; size++){
+			timer.setSize(size);
+			for(int i=0; i<warmupIterations; i++){
+				workload.run(size);
+			}
+			ArrayList<Long> sizeSamples = new ArrayList<Long>();
+			for(int i=0; i<measurementIterations; i++){
+				long start = System.nanoTime();
+				workload.run(size);
+				sizeSamples.add(System.nanoTime() - start);
+			}
+			result.put(size, sizeSamples);
+		}
+		return result;
+	}
+	
+	// runs a forked JVM and waits for it, returns false if the fork failed
+	private boolean runFork(int fork) throws IOException, InterruptedException {
+		List<String> command = ForkedSweep.getJavaCommand(mainClass);
+		command.add(command.size() - 1, "-D" + FORK_PROPERTY + "=" + fork);
+		command.add(command.size() - 1, "-D" + DIRECTORY_PROPERTY + "=" + directory.getAbsolutePath());
+		File log = new File(directory, "fork-" + fork + ".log");
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(log);
+		Process process = builder.start();
+		try {
+			int exitCode = process.waitFor();
+			if(exitCode != 0){
+				System.err.println("Warning: harness fork " + fork + " exited with " + exitCode + ", see " + log.getPath());
+				return false;
+			}
+			return true;
+		} finally {
+			process.destroy();
+		}
+	}
+	
+	private static File getSamplesFile(File directory, int fork){
+		return new File(directory, "fork-" + fork + ".csv");
+	}
+	
+	private static void saveSamples(TreeMap<Integer, ArrayList<Long>> samples, File outputFile) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("WORKLOAD_SIZE,ITERATION,TIME\n");
+			for(Entry<Integer, ArrayList<Long>> entry : samples.entrySet()){
+				ArrayList<Long> sizeSamples = entry.getValue();
+				for(int i=0; i<sizeSamples.size(); i++){
+					writer.write(entry.getKey() + "," + (i + 1) + "," + sizeSamples.get(i) + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static TreeMap<Integer, ArrayList<Long>> loadSamples(File inputFile) throws IOException {
+		TreeMap<Integer, ArrayList<Long>> result = new TreeMap<Integer, ArrayList<Long>>();
+		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		try {
+			String line = reader.readLine(); // header
+			while((line = reader.readLine()) != null){
+				String[] values = line.split(",");
+				Integer size = Integer.parseInt(values[0]);
+				ArrayList<Long> sizeSamples = result.get(size);
+				if(sizeSamples == null){
+					sizeSamples = new ArrayList<Long>();
+					result.put(size, sizeSamples);
+				}
+				sizeSamples.add(Long.parseLong(values[2]));
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+	
+	private void addSamples(TreeMap<Integer, ArrayList<Long>> forkSamples){
+		for(Entry<Integer, ArrayList<Long>> entry : forkSamples.entrySet()){
+			ArrayList<Long> sizeSamples = samples.get(entry.getKey());
+			if(sizeSamples == null){
+				sizeSamples = new ArrayList<Long>();
+				samples.put(entry.getKey(), sizeSamples);
+			}
+			sizeSamples.addAll(entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the workload sizes that have samples
+	 * @return
+	 */
+	public List<Integer> getSizes(){
+		return new ArrayList<Integer>(samples.keySet());
+	}
+	
+	/**
+	 * Returns the sorted measurement samples of the given size over all forks
+	 * @param size
+	 * @return
+	 */
+	public long[] getSamples(int size){
+		ArrayList<Long> sizeSamples = samples.get(size);
+		if(sizeSamples == null){
+			return new long[0];
+		}
+		ArrayList<Long> sorted = new ArrayList<Long>(sizeSamples);
+		Collections.sort(sorted);
+		long[] result = new long[sorted.size()];
+		for(int i=0; i<result.length; i++){
+			result[i] = sorted.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the median sample of the given size
+	 * @param size
+	 * @return
+	 */
+	public long getMedian(int size){
+		long[] sorted = getSamples(size);
+		if(sorted.length == 0){
+			return 0;
+		}
+		int middle = sorted.length / 2;
+		return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+	
+	/**
+	 * Returns the lower bound of the 95% confidence interval of the median of the given size
+	 * @param size
+	 * @return
+	 */
+	public long getLowerBound(int size){
+		long[] sorted = getSamples(size);
+		return sorted.length == 0 ? 0 : sorted[getLowerRank(sorted.length)];
+	}
+	
+	/**
+	 * Returns the upper bound of the 95% confidence interval of the median of the given size
+	 * @param size
+	 * @return
+	 */
+	public long getUpperBound(int size){
+		long[] sorted = getSamples(size);
+		return sorted.length == 0 ? 0 : sorted[sorted.length - 1 - getLowerRank(sorted.length)];
+	}
+	
+	/**
+	 * Returns the larger distance from the median to the bounds of its confidence interval
+	 * @param size
+	 * @return
+	 */
+	public long getError(int size){
+		long median = getMedian(size);
+		return Math.max(median - getLowerBound(size), getUpperBound(size) - median);
+	}
+	
+	// the (0 based) rank of the lower bound of the confidence interval of the median,
+	// the number of samples below the median is binomial(n, 1/2), so with the normal
+	// approximation the interval runs from rank n/2 - 0.98 sqrt(n) to the mirrored rank
+	private static int getLowerRank(int n){
+		int rank = (int) Math.floor((n / 2.0) - (0.98 * Math.sqrt(n))) - 1;
+		return Math.max(0, Math.min(rank, (n - 1) / 2));
+	}
+	
+	/**
+	 * Writes a CSV file of the summary of each workload size in the format
+	 * WORKLOAD_SIZE,SAMPLES,MEDIAN,LOWER_BOUND,UPPER_BOUND
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveSummary(File outputFile) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			writer.write("WORKLOAD_SIZE,SAMPLES,MEDIAN,LOWER_BOUND,UPPER_BOUND\n");
+			for(Integer size : samples.keySet()){
+				writer.write(size + "," + samples.get(size).size() + "," + getMedian(size)
+						+ "," + getLowerBound(size) + "," + getUpperBound(size) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+}
@@ -0,0 +1,157 @@
+package tca.instrumentation;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the events of a binary trace file written by {@link TCA_Trace}
+ * one chunk at a time, so arbitrarily large traces can be read in bounded memory
+ * 
+ * Usage:
+ * 	while(reader.next()){ reader.getId(); reader.isExit(); reader.getThread(); reader.getTimestamp(); reader.getSize(); }
+ * 
+ * Version 1 traces only have loop header events.
+ */
+public class TraceReader implements Closeable {
+
+	private final DataInputStream input;
+	private final Inflater inflater = new Inflater();
+	private byte[] compressed = new byte[0];
+	private ByteBuffer chunk = ByteBuffer.allocate(0);
+	private long droppedEvents = 0;
+	
+	private int id;
+	private boolean exit;
+	private int thread;
+	private long timestamp;
+	private int size;
+	
+	public TraceReader(File traceFile) throws IOException {
+		input = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)));
+		if(input.readInt() != TCA_Trace.MAGIC){
+			input.close();
+			throw new IOException(traceFile.getName() + " is not a trace file");
+		}
+		int version = input.readInt();
+		if(version != 1 && version != TCA_Trace.VERSION){
+			input.close();
+			throw new IOException("Unsupported trace version " + version);
+		}
+	}
+	
+	/**
+	 * Advances to the next event
+	 * @return Returns false if there are no more events
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if(!chunk.hasRemaining() && !readChunk()){
+			return false;
+		}
+		id = chunk.getInt();
+		// exit events store the complement of the loop ID
+		exit = id < 0;
+		if(exit){
+			id = ~id;
+		}
+		thread = chunk.getInt();
+		timestamp = chunk.getLong();
+		size = chunk.getInt();
+		return true;
+	}
+	
+	private boolean readChunk() throws IOException {
+		int magic;
+		try {
+			magic = input.readInt();
+		} catch (EOFException e){
+			return false;
+		}
+		if(magic != TCA_Trace.CHUNK_MAGIC){
+			throw new IOException("Corrupt trace chunk");
+		}
+		int events = input.readInt();
+		droppedEvents = input.readLong();
+		int compressedLength = input.readInt();
+		if(compressed.length < compressedLength){
+			compressed = new byte[compressedLength];
+		}
+		input.readFully(compressed, 0, compressedLength);
+		int length = events * TCA_Trace.EVENT_LENGTH;
+		if(chunk.capacity() < length){
+			chunk = ByteBuffer.allocate(length);
+		}
+		chunk.clear();
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try {
+			int inflated = 0;
+			while(inflated < length && !inflater.finished()){
+				int n = inflater.inflate(chunk.array(), inflated, length - inflated);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				inflated += n;
+			}
+			if(inflated != length){
+				throw new IOException("Truncated trace chunk");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt trace chunk", e);
+		}
+		chunk.limit(length);
+		return events > 0 || readChunk();
+	}
+	
+	public int getId(){
+		return id;
+	}
+	
+	/**
+	 * Returns true if the event ended an execution of the loop (a loop exit), 
+	 * otherwise the event is an iteration of the loop (a loop header visit)
+	 * @return
+	 */
+	public boolean isExit(){
+		return exit;
+	}
+	
+	/**
+	 * Returns the trace's index of the thread that recorded the event
+	 * @return
+	 */
+	public int getThread(){
+		return thread;
+	}
+	
+	public long getTimestamp(){
+		return timestamp;
+	}
+	
+	public int getSize(){
+		return size;
+	}
+	
+	/**
+	 * Returns the number of events dropped by the recording program up to the current chunk
+	 * @return
+	 */
+	public long getDroppedEvents(){
+		return droppedEvents;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		input.close();
+	}
+	
+}
@@ -0,0 +1,296 @@
+package tca.instrumentation;
+
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Chooses the workload sizes of a sweep adaptively within a wall clock budget, so the
+ * measurements are spent where they tell the most about the growth of the workload
+ *
+ * A linear sweep of sizes 1..n spends most of its runs on small sizes, which say little
+ * about the asymptotic growth, and has no bound on how long the largest sizes take.
+ * The scheduler first grows the size geometrically from the minimum size, until the
+ * maximum size is reached or the next size is predicted not to fit in the remaining
+ * budget. It then refines the sweep where the local slope of the log-log profile
+ * changes, by adding the geometric midpoint of the wider of the two segments around
+ * the point with the largest change in slope, until the slopes agree within the
+ * tolerance, no midpoint is left or the budget is used up.
+ *
+ * The time of a size is measured from {@link #next()} to {@link #record(int, long)},
+ * and is predicted for a new size from the growth of the time of the measured sizes.
+ *
+ * Usage:
+ * 	while(scheduler.hasNext()){
+ * 		int size = scheduler.next();
+ * 		... run the workload of the size ...
+ * 		scheduler.record(size, measurement);
+ * 	}
+ */
+public class WorkloadScheduler {
+	
+	public static final double DEFAULT_GROWTH_FACTOR = 2.0;
+	public static final double DEFAULT_SLOPE_TOLERANCE = 0.25;
+	
+	private final int minimumSize;
+	private final int maximumSize;
+	private final long budget; // nanoseconds
+	
+	private double growthFactor = DEFAULT_GROWTH_FACTOR;
+	private double slopeTolerance = DEFAULT_SLOPE_TOLERANCE;
+	
+	// the measurement and the run time (in nanoseconds) of each recorded size
+	private final TreeMap<Integer, Long> measurements = new TreeMap<Integer, Long>();
+	private final TreeMap<Integer, Long> times = new TreeMap<Integer, Long>();
+	
+	private long start = -1;
+	private long sizeStart;
+	private int nextSize = -1;
+	private int runningSize = -1;
+	private boolean growing = true;
+	private boolean finished = false;
+	
+	/**
+	 * Creates a scheduler of the sizes from the minimum to the maximum size
+	 * @param minimumSize
+	 * @param maximumSize
+	 * @param budget The wall clock budget of the sweep in milliseconds
+	 */
+	public WorkloadScheduler(int minimumSize, int maximumSize, long budget){
+		if(minimumSize < 1 || maximumSize < minimumSize){
+			throw new IllegalArgumentException("Invalid workload size range " + minimumSize + ".." + maximumSize);
+		}
+		this.minimumSize = minimumSize;
+		this.maximumSize = maximumSize;
+		this.budget = budget * 1000000L;
+	}
+	
+	/**
+	 * Sets the factor each size grows by in the geometric phase (greater than 1)
+	 * @param growthFactor
+	 */
+	public void setGrowthFactor(double growthFactor){
+		if(growthFactor <= 1.0){
+			throw new IllegalArgumentException("The growth factor must be greater than 1");
+		}
+		this.growthFactor = growthFactor;
+	}
+	
+	public double getGrowthFactor(){
+		return growthFactor;
+	}
+	
+	/**
+	 * Sets the largest change in the local log-log slope that is not refined
+	 * @param slopeTolerance
+	 */
+	public void setSlopeTolerance(double slopeTolerance){
+		this.slopeTolerance = slopeTolerance;
+	}
+	
+	public double getSlopeTolerance(){
+		return slopeTolerance;
+	}
+	
+	/**
+	 * Returns true if there is another size to run
+	 * @return
+	 */
+	public boolean hasNext(){
+		if(runningSize != -1){
+			throw new IllegalStateException("The measurement of workload size " + runningSize + " was not recorded");
+		}
+		if(nextSize == -1 && !finished){
+			nextSize = schedule();
+			if(nextSize == -1){
+				finished = true;
+			}
+		}
+		return nextSize != -1;
+	}
+	
+	/**
+	 * Returns the next size to run and starts its timer
+	 * @return
+	 */
+	public int next(){
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		int size = nextSize;
+		nextSize = -1;
+		runningSize = size;
+		sizeStart = System.nanoTime();
+		if(start == -1){
+			start = sizeStart;
+		}
+		return size;
+	}
+	
+	/**
+	 * Records the measurement of the size returned by the last call to {@link #next()}
+	 * @param size
+	 * @param measurement
+	 */
+	public void record(int size, long measurement){
+		if(size != runningSize){
+			throw new IllegalArgumentException("Workload size " + size + " is not running");
+		}
+		times.put(size, Math.max(1, System.nanoTime() - sizeStart));
+		measurements.put(size, measurement);
+		runningSize = -1;
+	}
+	
+	/**
+	 * Returns the wall clock time left in the budget in nanoseconds
+	 * @return
+	 */
+	public long getRemainingBudget(){
+		return start == -1 ? budget : budget - (System.nanoTime() - start);
+	}
+	
+	/**
+	 * Returns the recorded measurements by workload size
+	 * @return
+	 */
+	public TreeMap<Integer, Long> getMeasurements(){
+		return new TreeMap<Integer, Long>(measurements);
+	}
+	
+	/**
+	 * Returns the exponent of the polynomial growth of the largest sizes, the slope of the
+	 * least squares fit of the log-log profile of the recorded measurements after the last
+	 * change in slope above the tolerance (NaN with fewer than two points)
+	 * @return
+	 */
+	public double getExponent(){
+		ArrayList<double[]> points = getLogPoints(measurements);
+		if(points.size() < 2){
+			return Double.NaN;
+		}
+		// the smaller sizes before a change in slope do not show the asymptotic growth
+		int first = points.size() - 2;
+		while(first > 0 && Math.abs(getSlope(points.get(first - 1), points.get(first)) 
+				- getSlope(points.get(first), points.get(first + 1))) <= slopeTolerance){
+			first--;
+		}
+		points = new ArrayList<double[]>(points.subList(first, points.size()));
+		double meanX = 0, meanY = 0;
+		for(double[] point : points){
+			meanX += point[0];
+			meanY += point[1];
+		}
+		meanX /= points.size();
+		meanY /= points.size();
+		double covariance = 0, variance = 0;
+		for(double[] point : points){
+			covariance += (point[0] - meanX) * (point[1] - meanY);
+			variance += (point[0] - meanX) * (point[0] - meanX);
+		}
+		return covariance / variance;
+	}
+	
+	// returns the next size to run, or -1 if the sweep is done
+	private int schedule(){
+		if(getRemainingBudget() <= 0){
+			return -1;
+		}
+		if(growing){
+			int size = measurements.isEmpty() ? minimumSize : nextGrowthSize(measurements.lastKey());
+			if(size != -1 && fits(size)){
+				return size;
+			}
+			growing = false;
+		}
+		return nextRefinementSize();
+	}
+	
+	private int nextGrowthSize(int size){
+		if(size >= maximumSize){
+			return -1;
+		}
+		long next = Math.max(size + 1, (long) Math.ceil(size * growthFactor));
+		return (int) Math.min(next, maximumSize);
+	}
+	
+	// returns the midpoint of the wider segment around the point with the
+	// largest change in slope above the tolerance that fits in the budget
+	private int nextRefinementSize(){
+		ArrayList<double[]> points = getLogPoints(measurements);
+		int best = -1;
+		double bestChange = slopeTolerance;
+		for(int i=1; i<points.size()-1; i++){
+			double leftSlope = getSlope(points.get(i - 1), points.get(i));
+			double rightSlope = getSlope(points.get(i), points.get(i + 1));
+			double change = Math.abs(rightSlope - leftSlope);
+			if(change > bestChange){
+				double[] left = points.get(i - 1);
+				double[] point = points.get(i);
+				double[] right = points.get(i + 1);
+				boolean leftWider = (point[0] - left[0]) > (right[0] - point[0]);
+				int size = leftWider ? getMidpoint(left, point) : getMidpoint(point, right);
+				if(size == -1){
+					// the wider segment has no sizes left between its points, try the other one
+					size = leftWider ? getMidpoint(point, right) : getMidpoint(left, point);
+				}
+				if(size != -1 && fits(size)){
+					best = size;
+					bestChange = change;
+				}
+			}
+		}
+		return best;
+	}
+	
+	// returns the integer geometric midpoint of the sizes of two points, or -1 if there is none
+	private static int getMidpoint(double[] left, double[] right){
+		int leftSize = (int) Math.round(Math.exp(left[0]));
+		int rightSize = (int) Math.round(Math.exp(right[0]));
+		int size = (int) Math.round(Math.sqrt((double) leftSize * rightSize));
+		return size > leftSize && size < rightSize ? size : -1;
+	}
+	
+	// true if the predicted time of the size fits in the remaining budget
+	private boolean fits(int size){
+		return predictTime(size) <= getRemainingBudget();
+	}
+	
+	// extrapolates the time of a size from the growth of the time of the recorded sizes
+	private long predictTime(int size){
+		if(times.isEmpty()){
+			return 0;
+		}
+		Entry<Integer, Long> below = times.floorEntry(size);
+		if(below == null){
+			return times.firstEntry().getValue();
+		}
+		Entry<Integer, Long> above = times.higherEntry(size);
+		if(above != null){
+			// a size between two recorded sizes takes at most about as long as the larger one
+			return above.getValue();
+		}
+		Entry<Integer, Long> previous = times.lowerEntry(below.getKey());
+		double exponent = 1.0;
+		if(previous != null){
+			exponent = Math.max(1.0, Math.log((double) below.getValue() / previous.getValue())
+					/ Math.log((double) below.getKey() / previous.getKey()));
+		}
+		double predicted = below.getValue() * Math.pow((double) size / below.getKey(), exponent);
+		return predicted > Long.MAX_VALUE ? Long.MAX_VALUE : (long) predicted;
+	}
+	
+	private static double getSlope(double[] left, double[] right){
+		return (right[1] - left[1]) / (right[0] - left[0]);
+	}
+	
+	// the (log size, log measurement) points, measurements below 1 are clamped to 1
+	private static ArrayList<double[]> getLogPoints(TreeMap<Integer, Long> measurements){
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for(Entry<Integer, Long> entry : measurements.entrySet()){
+			points.add(new double[]{ Math.log(entry.getKey()), Math.log(Math.max(1, entry.getValue())) });
+		}
+		return points;
+	}
+	
+}
@@ -0,0 +1,152 @@
+package tca.instrumentation;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Carries the workload size with the executing thread so that several workload
+ * sizes can run at the same time and each probe hit is still attributed to the
+ * size of the workload that caused it
+ *
+ * A scoped size takes precedence over the size set with {@link MeasurementProbe#setSize(int)}.
+ * Threads started inside a scope inherit its size. Thread pool threads are reused
+ * across tasks, so tasks submitted to a pool from inside a scope should be wrapped
+ * with {@link #wrap(Runnable)} or {@link #wrap(Callable)} to carry the size with them.
+ */
+public class WorkloadScope {
+	
+	// the size of a thread, the reference is only shared with threads started inside the scope
+	private static class Scope {
+		private int size;
+		private boolean active;
+	}
+	
+	private static final InheritableThreadLocal<Scope> scopes = new InheritableThreadLocal<Scope>(){
+		@Override
+		protected Scope initialValue() {
+			return new Scope();
+		}
+		
+		@Override
+		protected Scope childValue(Scope parentValue) {
+			Scope scope = new Scope();
+			scope.size = parentValue.size;
+			scope.active = parentValue.active;
+			return scope;
+		}
+	};
+	
+	// set once any scope is entered, until then the probes skip the thread local lookup
+	private static volatile boolean used = false;
+	
+	private WorkloadScope(){}
+	
+	/**
+	 * Returns the workload size of the calling thread's scope, or the given
+	 * default size if the thread is not running inside a scope
+	 * @param defaultSize
+	 * @return
+	 */
+	public static int getSize(int defaultSize){
+		if(!used){
+			return defaultSize;
+		}
+		Scope scope = scopes.get();
+		return scope.active ? scope.size : defaultSize;
+	}
+	
+	/**
+	 * Returns true if the calling thread is running inside a scope
+	 * @return
+	 */
+	public static boolean inScope(){
+		return used && scopes.get().active;
+	}
+	
+	/**
+	 * Runs the task on the calling thread with all probe hits attributed to the given
+	 * workload size, the previous scope of the thread (if any) is restored afterwards
+	 * @param size
+	 * @param task
+	 */
+	public static void measure(int size, Runnable task){
+		Scope scope = enter();
+		int previousSize = scope.size;
+		boolean previouslyActive = scope.active;
+		scope.size = size;
+		scope.active = true;
+		try {
+			task.run();
+		} finally {
+			scope.size = previousSize;
+			scope.active = previouslyActive;
+		}
+	}
+	
+	/**
+	 * Runs the task on the calling thread with all probe hits attributed to the given
+	 * workload size, the previous scope of the thread (if any) is restored afterwards
+	 * @param size
+	 * @param task
+	 * @return The result of the task
+	 * @throws Exception Any exception thrown by the task
+	 */
+	public static <T> T measure(int size, Callable<T> task) throws Exception {
+		Scope scope = enter();
+		int previousSize = scope.size;
+		boolean previouslyActive = scope.active;
+		scope.size = size;
+		scope.active = true;
+		try {
+			return task.call();
+		} finally {
+			scope.size = previousSize;
+			scope.active = previouslyActive;
+		}
+	}
+	
+	/**
+	 * Returns a task that runs the given task in the calling thread's current scope,
+	 * for handing work to threads that were not started inside the scope (such as pool threads)
+	 * @param task
+	 * @return
+	 */
+	public static Runnable wrap(final Runnable task){
+		if(!inScope()){
+			return task;
+		}
+		final int size = scopes.get().size;
+		return new Runnable(){
+			@Override
+			public void run() {
+				measure(size, task);
+			}
+		};
+	}
+	
+	/**
+	 * Returns a task that runs the given task in the calling thread's current scope,
+	 * for handing work to threads that were not started inside the scope (such as pool threads)
+	 * @param task
+	 * @return
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task){
+		if(!inScope()){
+			return task;
+		}
+		final int size = scopes.get().size;
+		return new Callable<T>(){
+			@Override
+			public T call() throws Exception {
+				return measure(size, task);
+			}
+		};
+	}
+	
+	private static Scope enter(){
+		if(!used){
+			used = true;
+		}
+		return scopes.get();
+	}
+	
+}
@@ -0,0 +1,80 @@
+package tca.instrumentation;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cooperative stop flag for instrumented workloads
+ * 
+ * Once a stop is requested every loop probe throws a {@link WorkloadStoppedError}, 
+ * so the workload unwinds at its next loop iteration with its locks released and 
+ * its finally blocks run, instead of being killed at an arbitrary point with the
+ * deprecated Thread.stop(). The probes only read a volatile flag until then.
+ * 
+ * A stop can also be requested for a single workload size, which only stops the
+ * threads running that size in a {@link WorkloadScope}.
+ */
+public class WorkloadStop {
+	
+	private static volatile boolean requested = false;
+	
+	// the workload sizes with a stop request, and a flag that is set while there are any
+	private static final Set<Integer> requestedSizes = ConcurrentHashMap.newKeySet();
+	private static volatile boolean sizesRequested = false;
+	
+	private WorkloadStop(){}
+	
+	/**
+	 * Requests that the workload stops at its next probe
+	 */
+	public static void request(){
+		requested = true;
+	}
+	
+	/**
+	 * Clears a stop request so that the probes run normally again
+	 */
+	public static void reset(){
+		requested = false;
+	}
+	
+	public static boolean isRequested(){
+		return requested;
+	}
+	
+	/**
+	 * Requests that the workloads running the given size in a {@link WorkloadScope} stop at their next probe
+	 * @param size
+	 */
+	public static synchronized void request(int size){
+		requestedSizes.add(size);
+		sizesRequested = true;
+	}
+	
+	/**
+	 * Clears the stop request of the given size
+	 * @param size
+	 */
+	public static synchronized void reset(int size){
+		requestedSizes.remove(size);
+		sizesRequested = !requestedSizes.isEmpty();
+	}
+	
+	public static boolean isRequested(int size){
+		return requestedSizes.contains(size);
+	}
+	
+	/**
+	 * Throws a {@link WorkloadStoppedError} if a stop has been requested
+	 * (called by the probes)
+	 */
+	public static void check(){
+		if(requested){
+			throw new WorkloadStoppedError();
+		}
+		if(sizesRequested && WorkloadScope.inScope() && requestedSizes.contains(WorkloadScope.getSize(0))){
+			throw new WorkloadStoppedError();
+		}
+	}
+	
+}
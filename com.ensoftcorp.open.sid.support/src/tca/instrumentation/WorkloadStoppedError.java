@@ -0,0 +1,18 @@
+package tca.instrumentation;
+
+/**
+ * Thrown by the probes on the workload's threads once a stop has been requested 
+ * with {@link WorkloadStop#request()}, unwinding the workload from its next probe
+ * 
+ * This is an error rather than an exception so that the workload's own
+ * catch (Exception e) handlers do not swallow the stop.
+ */
+public class WorkloadStoppedError extends Error {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public WorkloadStoppedError() {
+		super("The workload was stopped by the driver");
+	}
+	
+}
@@ -0,0 +1,186 @@
+package tca.instrumentation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces a timeout on each workload size of a sweep, so a workload that blows up
+ * at some size does not hang the driver with the measurements of the smaller sizes
+ *
+ * Each size runs in a {@link WorkloadScope}. When a size runs past the timeout its
+ * stop is requested with {@link WorkloadStop#request(int)}, and the workload unwinds
+ * at its next probe. The size is recorded as censored (its measurements are
+ * incomplete) and becomes the cutoff of the sweep: larger sizes are skipped, and
+ * larger sizes that are already running are stopped and censored as well. The
+ * regression can still be computed from the completed sizes.
+ *
+ * A workload that never reaches a probe (blocked, or in uninstrumented code) can
+ * not be stopped cooperatively and is only reported.
+ */
+public class WorkloadWatchdog {
+	
+	private final long timeout; // milliseconds
+	
+	// the sizes that completed, timed out, and are running, guarded by this
+	private final TreeSet<Integer> completedSizes = new TreeSet<Integer>();
+	private final TreeSet<Integer> censoredSizes = new TreeSet<Integer>();
+	private final TreeSet<Integer> runningSizes = new TreeSet<Integer>();
+	private int cutoff = -1;
+	
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TCA Watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * Creates a watchdog with the given timeout for each workload size
+	 * @param timeout The timeout of a size in milliseconds
+	 */
+	public WorkloadWatchdog(long timeout){
+		if(timeout <= 0){
+			throw new IllegalArgumentException("The timeout must be positive");
+		}
+		this.timeout = timeout;
+	}
+	
+	public long getTimeout(){
+		return timeout;
+	}
+	
+	/**
+	 * Runs the task with all probe hits attributed to the given workload size, and
+	 * stops it if it runs past the timeout
+	 * @param size
+	 * @param task
+	 * @return Returns true if the task completed, false if it timed out, was stopped
+	 * because a smaller size timed out, or was skipped because the size is past the cutoff
+	 * @throws Exception Any exception thrown by the task
+	 */
+	public boolean measure(final int size, Callable<?> task) throws Exception {
+		synchronized (this) {
+			if(isCutOff(size)){
+				return false;
+			}
+			runningSizes.add(size);
+		}
+		ScheduledFuture<?> alarm = timer.schedule(new Runnable(){
+			@Override
+			public void run() {
+				timeout(size);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		try {
+			WorkloadScope.measure(size, task);
+			synchronized (this) {
+				// a stop requested after the task returned did not cut the size short
+				completedSizes.add(size);
+			}
+			return true;
+		} catch (WorkloadStoppedError e){
+			if(!WorkloadStop.isRequested(size)){
+				throw e;
+			}
+			synchronized (this) {
+				// stopped by its own timeout or by the cutoff of a smaller size
+				censoredSizes.add(size);
+			}
+			return false;
+		} finally {
+			alarm.cancel(false);
+			synchronized (this) {
+				runningSizes.remove(size);
+				WorkloadStop.reset(size);
+			}
+		}
+	}
+	
+	// stops a size that ran past the timeout and the larger sizes
+	private synchronized void timeout(int size){
+		if(!runningSizes.contains(size)){
+			return;
+		}
+		// the size is censored once it is stopped, it may still return before its next probe
+		if(cutoff == -1 || size < cutoff){
+			cutoff = size;
+		}
+		System.err.println("Warning: workload size " + size + " ran past the timeout of " + timeout
+				+ " ms and was stopped, larger sizes are skipped");
+		for(Integer runningSize : runningSizes){
+			if(runningSize >= cutoff){
+				WorkloadStop.request(runningSize);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the given size is at or past the cutoff and is not run
+	 * @param size
+	 * @return
+	 */
+	public synchronized boolean isCutOff(int size){
+		return cutoff != -1 && size >= cutoff;
+	}
+	
+	/**
+	 * Returns the smallest size that timed out, or -1 if no size timed out
+	 * @return
+	 */
+	public synchronized int getCutoff(){
+		return cutoff;
+	}
+	
+	/**
+	 * Returns the sizes that completed within the timeout
+	 * @return
+	 */
+	public synchronized TreeSet<Integer> getCompletedSizes(){
+		return new TreeSet<Integer>(completedSizes);
+	}
+	
+	/**
+	 * Returns the sizes that timed out or were stopped by the cutoff while running,
+	 * their measurements are incomplete
+	 * @return
+	 */
+	public synchronized TreeSet<Integer> getCensoredSizes(){
+		return new TreeSet<Integer>(censoredSizes);
+	}
+	
+	/**
+	 * Writes a CSV file of the censored sizes in the format WORKLOAD_SIZE,TIMEOUT_MS,
+	 * the measurements saved by the probes for these sizes are incomplete
+	 * @param outputFile
+	 * @throws IOException
+	 */
+	public void saveCensoredSizes(File outputFile) throws IOException {
+		FileWriter fw = new FileWriter(outputFile);
+		try {
+			fw.write("WORKLOAD_SIZE,TIMEOUT_MS\n");
+			for(Integer size : getCensoredSizes()){
+				fw.write(size + "," + timeout + "\n");
+			}
+		} finally {
+			fw.close();
+		}
+	}
+	
+	/**
+	 * Stops the watchdog timer
+	 */
+	public void close(){
+		timer.shutdownNow();
+	}
+	
+}
@@ -36,6 +36,12 @@ public abstract class Instrument {
 	
 	public abstract String getMeasurementKeyName();
 	
+	/**
+	 * Returns the dense integer ID the probes use for this instrument's measurement key
+	 * @return
+	 */
+	public abstract int getMeasurementKeyId();
+	
 	public abstract String[] getSupportedGraphElements();
 
 	public abstract boolean performInstrumentation();
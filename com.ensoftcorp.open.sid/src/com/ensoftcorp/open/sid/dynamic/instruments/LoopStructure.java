@@ -0,0 +1,110 @@
+package com.ensoftcorp.open.sid.dynamic.instruments;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.CFGNode;
+
+/**
+ * Finds the statements around a loop that instruments probe to observe loop entries
+ * and exits, in addition to the loop header
+ */
+public class LoopStructure {
+	
+	private LoopStructure(){}
+	
+	/**
+	 * Returns the control flow nodes of the loop, including the nodes of nested loops
+	 * @param loopHeader
+	 * @return
+	 */
+	public static HashSet<GraphElement> getMembers(GraphElement loopHeader){
+		Object loopHeaderId = loopHeader.getAttr(CFGNode.LOOP_HEADER_ID);
+		Q method = Common.toQ(CommonQueries.getContainingFunction(loopHeader));
+		HashMap<Object,GraphElement> loopHeaders = new HashMap<Object,GraphElement>();
+		for(GraphElement header : method.contained().nodesTaggedWithAll(XCSG.ControlFlow_Node, CFGNode.LOOP_HEADER).eval().nodes()){
+			loopHeaders.put(header.getAttr(CFGNode.LOOP_HEADER_ID), header);
+		}
+		HashSet<GraphElement> members = new HashSet<GraphElement>();
+		members.add(loopHeader);
+		for(GraphElement node : method.contained().nodesTaggedWithAll(XCSG.ControlFlow_Node).selectNode(CFGNode.LOOP_MEMBER_ID).eval().nodes()){
+			// follow the chain of enclosing loops up to the outermost loop
+			GraphElement member = node;
+			while(member != null && member.hasAttr(CFGNode.LOOP_MEMBER_ID)){
+				Object memberId = member.getAttr(CFGNode.LOOP_MEMBER_ID);
+				if(memberId.equals(loopHeaderId)){
+					members.add(node);
+					break;
+				}
+				member = loopHeaders.get(memberId);
+			}
+		}
+		return members;
+	}
+	
+	/**
+	 * Returns the statements outside of the loop that can only continue into the loop header,
+	 * an entry probe inserted just before them runs once per execution of the loop (entries
+	 * from branches into the header have no such statement)
+	 * @param loopHeader
+	 * @param members The loop's members (see {@link #getMembers(GraphElement)})
+	 * @return
+	 */
+	public static HashSet<GraphElement> getEntries(GraphElement loopHeader, HashSet<GraphElement> members){
+		Q controlFlowEdges = Common.universe().edgesTaggedWithAny(XCSG.ControlFlow_Edge);
+		HashSet<GraphElement> entries = new HashSet<GraphElement>();
+		for(GraphElement predecessor : controlFlowEdges.predecessors(Common.toQ(loopHeader)).eval().nodes()){
+			if(!members.contains(predecessor) && !isIdentityStatement(predecessor) && predecessor.hasAttr(Node.SC)
+					&& controlFlowEdges.successors(Common.toQ(predecessor)).eval().nodes().size() == 1){
+				entries.add(predecessor);
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Returns the targets of the loop's exit edges and the returns inside the loop, an exit
+	 * probe inserted just before them runs after each execution of the loop (and on any
+	 * other paths to the exit targets that did not enter the loop)
+	 * @param members The loop's members (see {@link #getMembers(GraphElement)})
+	 * @return
+	 */
+	public static HashSet<GraphElement> getExits(HashSet<GraphElement> members){
+		Q controlFlowEdges = Common.universe().edgesTaggedWithAny(XCSG.ControlFlow_Edge);
+		HashSet<GraphElement> exits = new HashSet<GraphElement>();
+		for(GraphElement member : members){
+			if(member.taggedWith(XCSG.controlFlowExitPoint)){
+				exits.add(member);
+			}
+			for(GraphElement successor : controlFlowEdges.successors(Common.toQ(member)).eval().nodes()){
+				if(!members.contains(successor)){
+					exits.add(successor);
+				}
+			}
+		}
+		HashSet<GraphElement> result = new HashSet<GraphElement>();
+		for(GraphElement exit : exits){
+			if(exit.hasAttr(Node.SC)){
+				result.add(exit);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns true if the statement is a Jimple identity statement (ex: r0 := @this),
+	 * which must come before any other statement of the method body
+	 * @param statement
+	 * @return
+	 */
+	public static boolean isIdentityStatement(GraphElement statement){
+		return statement.getAttr(XCSG.name).toString().contains(":= @");
+	}
+	
+}
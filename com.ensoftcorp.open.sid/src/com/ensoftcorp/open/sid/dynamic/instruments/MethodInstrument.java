@@ -0,0 +1,113 @@
+package com.ensoftcorp.open.sid.dynamic.instruments;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.index.common.SourceCorrespondence;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+public abstract class MethodInstrument extends Instrument {
+	
+	private String probeClassName;
+	private String measurementKeyName;
+	private int measurementKeyId;
+	
+	/**
+	 * Inserts a call to the enter(int) probe of the given runtime class at the method's
+	 * entry and a call to its exit(int) probe just before the method's exits
+	 * @param project
+	 * @param method
+	 * @param manifest The manifest that assigns the measurement key ID
+	 * @param probeClassName The qualified name of the runtime probe class (ex: tca.instrumentation.TCA_Invocation)
+	 */
+	public MethodInstrument(IProject project, GraphElement method, ProbeManifest manifest, String probeClassName) {
+		super(project, method);
+		this.probeClassName = probeClassName;
+		measurementKeyName = getQualifiedMethodName(method);
+		measurementKeyId = manifest.getId(measurementKeyName, method);
+	}
+	
+	@Override
+	public String[] getSupportedGraphElements() {
+		return new String[]{XCSG.Method};
+	}
+	
+	@Override
+	public boolean performInstrumentation() {
+		Q controlFlow = Common.toQ(graphElement).contained().nodesTaggedWithAll(XCSG.ControlFlow_Node);
+		Q controlFlowEdges = Common.universe().edgesTaggedWithAny(XCSG.ControlFlow_Edge);
+		GraphElement statement = controlFlow.nodesTaggedWithAny(XCSG.controlFlowRoot).eval().nodes().getFirst();
+		// skip the identity statements, which must come first in the method body
+		while(statement != null && LoopStructure.isIdentityStatement(statement)){
+			statement = controlFlowEdges.successors(Common.toQ(statement)).eval().nodes().getFirst();
+		}
+		if(statement == null || !statement.hasAttr(Node.SC)){
+			return false;
+		}
+		try {
+			// insert after the end of the previous statement or declaration, so the entry probe also comes 
+			// before the first statement's label (if a loop starts the method it only runs once)
+			SourceCorrespondence sc = (SourceCorrespondence) statement.getAttr(Node.SC);
+			insert(sc.sourceFile, getPreviousStatementEnd(sc), "\nstaticinvoke <" + probeClassName + ": void enter(int)>(" + measurementKeyId + ");\n");
+			
+			// insert just before the returns
+			for(GraphElement exit : controlFlow.nodesTaggedWithAny(XCSG.controlFlowExitPoint).eval().nodes()){
+				if(exit.hasAttr(Node.SC)){
+					SourceCorrespondence exitSC = (SourceCorrespondence) exit.getAttr(Node.SC);
+					insert(exitSC.sourceFile, exitSC.offset, "\nstaticinvoke <" + probeClassName + ": void exit(int)>(" + measurementKeyId + ");\n");
+				}
+			}
+		} catch (IOException | CoreException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	// helper method to find the offset just after the statement, declaration or 
+	// method body brace that precedes the statement at the given source correspondence
+	private long getPreviousStatementEnd(SourceCorrespondence sc) throws IOException {
+		File file = sc.sourceFile.getLocation().toFile();
+		byte[] source = Files.readAllBytes(file.toPath());
+		for(int offset=(int) sc.offset - 1; offset >= 0; offset--){
+			if(source[offset] == ';' || source[offset] == '{'){
+				return offset + 1;
+			}
+		}
+		return sc.offset;
+	}
+	
+	// helper method to get a qualified name of the method
+	// should produce a string like "mypackage.MyClass.myMethod"
+	private String getQualifiedMethodName(GraphElement method){
+		String name = method.getAttr(XCSG.name).toString();
+		Q containsEdges = Common.universe().edgesTaggedWithAny(XCSG.Contains);
+		GraphElement parent = containsEdges.predecessors(Common.toQ(method)).eval().nodes().getFirst();
+		while(parent != null && !parent.tags().contains(XCSG.Project) && !parent.tags().contains(XCSG.Library)){
+			// skip adding qualified part for default package
+			if(!(parent.tags().contains(XCSG.Package) && parent.getAttr(XCSG.name).toString().equals(""))){
+				name = parent.getAttr(XCSG.name).toString() + "." + name;
+			}
+			parent = containsEdges.predecessors(Common.toQ(parent)).eval().nodes().getFirst();
+		}
+		return name;
+	}
+	
+	@Override
+	public String getMeasurementKeyName() {
+		return measurementKeyName;
+	}
+	
+	@Override
+	public int getMeasurementKeyId() {
+		return measurementKeyId;
+	}
+	
+}
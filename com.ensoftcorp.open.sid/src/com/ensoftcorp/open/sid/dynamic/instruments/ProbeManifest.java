@@ -0,0 +1,125 @@
+package com.ensoftcorp.open.sid.dynamic.instruments;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.index.common.SourceCorrespondence;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.analysis.CommonQueries;
+
+/**
+ * Assigns dense integer IDs to measurement keys so that instruments can link
+ * to the probes with an int instead of a String. The mapping is saved as a
+ * manifest next to the instrumented Jimple in the format ID,KEY,METHOD,FILE,OFFSET
+ */
+public class ProbeManifest {
+
+	public static final String MANIFEST_FILE_NAME = "tca-manifest.csv";
+	
+	private File manifestFile;
+	private ArrayList<String> entries = new ArrayList<String>();
+	private HashMap<String,Integer> ids = new HashMap<String,Integer>();
+	
+	private ProbeManifest(File manifestFile){
+		this.manifestFile = manifestFile;
+	}
+	
+	/**
+	 * Loads the manifest in the given (Jimple) directory, IDs of previously
+	 * instrumented keys are preserved and new keys continue the numbering
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static ProbeManifest load(File directory) throws IOException {
+		ProbeManifest manifest = new ProbeManifest(new File(directory.getCanonicalPath() + File.separatorChar + MANIFEST_FILE_NAME));
+		if(manifest.manifestFile.exists()){
+			BufferedReader reader = new BufferedReader(new FileReader(manifest.manifestFile));
+			try {
+				String line = reader.readLine(); // skip the header
+				while((line = reader.readLine()) != null){
+					String[] columns = line.split(",");
+					if(columns.length >= 2){
+						manifest.ids.put(columns[1], manifest.entries.size());
+						manifest.entries.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return manifest;
+	}
+	
+	public File getManifestFile(){
+		return manifestFile;
+	}
+	
+	/**
+	 * Returns the ID of the given measurement key, assigning the next free ID
+	 * if the key has not been seen before
+	 * @param key The qualified measurement key name
+	 * @param graphElement The instrumented graph element
+	 * @return
+	 */
+	public int getId(String key, GraphElement graphElement){
+		Integer id = ids.get(key);
+		if(id == null){
+			id = entries.size();
+			String method = "";
+			GraphElement function = CommonQueries.getContainingFunction(graphElement);
+			if(function != null){
+				method = getQualifiedName(function);
+			}
+			String file = "";
+			long offset = -1;
+			SourceCorrespondence sc = (SourceCorrespondence) graphElement.getAttr(Node.SC);
+			if(sc != null){
+				file = sc.sourceFile.getProjectRelativePath().toString();
+				offset = sc.offset;
+			}
+			entries.add(id + "," + key + "," + method + "," + file + "," + offset);
+			ids.put(key, id);
+		}
+		return id;
+	}
+	
+	public void save() throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(manifestFile));
+		try {
+			writer.write("ID,KEY,METHOD,FILE,OFFSET\n");
+			for(String entry : entries){
+				writer.write(entry + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	// helper method to get a qualified name of a method
+	private static String getQualifiedName(GraphElement node){
+		String name = node.getAttr(XCSG.name).toString();
+		// qualify the label
+		Q containsEdges = Common.universe().edgesTaggedWithAny(XCSG.Contains);
+		GraphElement parent = containsEdges.predecessors(Common.toQ(node)).eval().nodes().getFirst();
+		while(parent != null && !parent.tags().contains(XCSG.Project) && !parent.tags().contains(XCSG.Library)){
+			// skip adding qualified part for default package
+			if(!(parent.tags().contains(XCSG.Package) && parent.getAttr(XCSG.name).toString().equals(""))){
+				name = parent.getAttr(XCSG.name).toString() + "." + name;
+			}
+			parent = containsEdges.predecessors(Common.toQ(parent)).eval().nodes().getFirst();
+		}
+		return name;
+	}
+	
+}
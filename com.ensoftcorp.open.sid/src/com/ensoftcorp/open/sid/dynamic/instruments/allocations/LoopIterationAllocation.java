@@ -0,0 +1,88 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.allocations;
+
+import java.io.IOException;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.index.common.SourceCorrespondence;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.CFGNode;
+import com.ensoftcorp.open.sid.dynamic.instruments.LoopStructure;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
+
+public class LoopIterationAllocation extends Allocation {
+	
+	private String measurementKeyName;
+	private int measurementKeyId;
+	
+	/**
+	 * Inserts an allocation probe just before the loop header and at the loop's exits
+	 * Measures the bytes the thread allocates from one header visit to the next, and in the last iteration up to the loop exit
+	 * @param project
+	 * @param graphElement
+	 * @param manifest The manifest that assigns the measurement key ID
+	 */
+	public LoopIterationAllocation(IProject project, GraphElement loopHeader, ProbeManifest manifest) {
+		super(project, loopHeader);
+		measurementKeyName = getQualifiedLabelName(loopHeader);
+		measurementKeyId = manifest.getId(measurementKeyName, loopHeader);
+	}
+
+	@Override
+	public String[] getSupportedGraphElements() {
+		return new String[]{CFGNode.LOOP_HEADER};
+	}
+
+	@Override
+	public boolean performInstrumentation() {
+		GraphElement loopHeader = graphElement;
+		SourceCorrespondence sc = (SourceCorrespondence) loopHeader.getAttr(Node.SC);
+		try {
+			// insert just before the loop header
+			insert(sc.sourceFile, sc.offset, "\nstaticinvoke <tca.instrumentation.TCA_Allocation: void probe(int)>(" + measurementKeyId + ");\n");
+			
+			// insert just before the targets of the loop's exit edges and the returns inside the loop
+			for(GraphElement exit : LoopStructure.getExits(LoopStructure.getMembers(loopHeader))){
+				SourceCorrespondence exitSC = (SourceCorrespondence) exit.getAttr(Node.SC);
+				insert(exitSC.sourceFile, exitSC.offset, "\nstaticinvoke <tca.instrumentation.TCA_Allocation: void exit(int)>(" + measurementKeyId + ");\n");
+			}
+		} catch (IOException | CoreException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	// helper method to get a qualified name of the loop header
+	// should produce a string like "MyProject.mypackage.MyClass.myMethod.label1"
+	private String getQualifiedLabelName(GraphElement loopHeader){
+		String name = loopHeader.getAttr(XCSG.name).toString();
+		name = name.substring(0, name.indexOf(":"));
+		// qualify the label
+		Q containsEdges = Common.universe().edgesTaggedWithAny(XCSG.Contains);
+		GraphElement parent = containsEdges.predecessors(Common.toQ(loopHeader)).eval().nodes().getFirst();
+		while(parent != null){
+			// skip adding qualified part for default package
+			if(!(parent.tags().contains(XCSG.Package) && parent.getAttr(XCSG.name).toString().equals(""))){
+				name = parent.getAttr(XCSG.name).toString() + "." + name;
+			}
+			parent = containsEdges.predecessors(Common.toQ(parent)).eval().nodes().getFirst();
+		}
+		return name;
+	}
+
+	@Override
+	public String getMeasurementKeyName() {
+		return measurementKeyName;
+	}
+	
+	@Override
+	public int getMeasurementKeyId() {
+		return measurementKeyId;
+	}
+
+}
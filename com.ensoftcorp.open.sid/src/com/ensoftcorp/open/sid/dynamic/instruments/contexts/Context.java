@@ -0,0 +1,14 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.contexts;
+
+import org.eclipse.core.resources.IProject;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.sid.dynamic.instruments.Instrument;
+
+public abstract class Context extends Instrument {
+	
+	public Context(IProject project, GraphElement graphElement) {
+		super(project, graphElement);
+	}
+	
+}
@@ -0,0 +1,22 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.contexts;
+
+import org.eclipse.core.resources.IProject;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.sid.dynamic.instruments.MethodInstrument;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
+
+public class MethodContext extends MethodInstrument {
+	
+	/**
+	 * Inserts a calling context probe at the method's entry and just before its exits
+	 * Pushes the method onto the shadow stack on entry and pops it on exit
+	 * @param project
+	 * @param method
+	 * @param manifest The manifest that assigns the measurement key ID
+	 */
+	public MethodContext(IProject project, GraphElement method, ProbeManifest manifest) {
+		super(project, method, manifest, "tca.instrumentation.TCA_Context");
+	}
+	
+}
@@ -12,21 +12,24 @@ import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.CFGNode;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
 
 public class LoopIterationCounter extends Counter {
 	
 	private String measurementKeyName;
+	private int measurementKeyId;
 	
 	/**
 	 * Inserts an counter just before the loop header
 	 * Logs each iteration along with the system timestamp
 	 * @param project
 	 * @param graphElement
-	 * @param logDirectory
+	 * @param manifest The manifest that assigns the measurement key ID
 	 */
-	public LoopIterationCounter(IProject project, GraphElement loopHeader) {
+	public LoopIterationCounter(IProject project, GraphElement loopHeader, ProbeManifest manifest) {
 		super(project, loopHeader);
 		measurementKeyName = getQualifiedLabelName(loopHeader);
+		measurementKeyId = manifest.getId(measurementKeyName, loopHeader);
 	}
 
 	@Override
@@ -40,7 +43,7 @@ public class LoopIterationCounter extends Counter {
 		SourceCorrespondence sc = (SourceCorrespondence) loopHeader.getAttr(Node.SC);
 		try {
 			// insert just before the loop header
-			insert(sc.sourceFile, sc.offset, "\nstaticinvoke <tca.instrumentation.TCA_Counter: void probe(java.lang.String)>(\"" + measurementKeyName + "\");\n");
+			insert(sc.sourceFile, sc.offset, "\nstaticinvoke <tca.instrumentation.TCA_Counter: void probe(int)>(" + measurementKeyId + ");\n");
 		} catch (IOException | CoreException e) {
 			return false;
 		}
@@ -69,5 +72,10 @@ public class LoopIterationCounter extends Counter {
 	public String getMeasurementKeyName() {
 		return measurementKeyName;
 	}
+	
+	@Override
+	public int getMeasurementKeyId() {
+		return measurementKeyId;
+	}
 
 }
@@ -0,0 +1,22 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.invocations;
+
+import org.eclipse.core.resources.IProject;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.sid.dynamic.instruments.MethodInstrument;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
+
+public class MethodInvocation extends MethodInstrument {
+	
+	/**
+	 * Inserts an invocation probe at the method's entry and just before its exits
+	 * Gives each invocation of the method its own scope for the loop probes
+	 * @param project
+	 * @param method
+	 * @param manifest The manifest that assigns the measurement key ID
+	 */
+	public MethodInvocation(IProject project, GraphElement method, ProbeManifest manifest) {
+		super(project, method, manifest, "tca.instrumentation.TCA_Invocation");
+	}
+	
+}
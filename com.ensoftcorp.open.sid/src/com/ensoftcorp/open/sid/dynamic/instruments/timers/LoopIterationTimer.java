@@ -12,21 +12,25 @@ import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.CFGNode;
+import com.ensoftcorp.open.sid.dynamic.instruments.LoopStructure;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
 
 public class LoopIterationTimer extends Timer {
 	
 	private String measurementKeyName;
+	private int measurementKeyId;
 	
 	/**
-	 * Inserts an counter just before the loop header
-	 * Logs each iteration along with the system timestamp
+	 * Inserts a timer just before the loop header and at the loop's exits
+	 * Times each iteration from one header visit to the next, and the last up to the loop exit
 	 * @param project
 	 * @param graphElement
-	 * @param logDirectory
+	 * @param manifest The manifest that assigns the measurement key ID
 	 */
-	public LoopIterationTimer(IProject project, GraphElement loopHeader) {
+	public LoopIterationTimer(IProject project, GraphElement loopHeader, ProbeManifest manifest) {
 		super(project, loopHeader);
 		measurementKeyName = getQualifiedLabelName(loopHeader);
+		measurementKeyId = manifest.getId(measurementKeyName, loopHeader);
 	}
 
 	@Override
@@ -40,7 +44,13 @@ public class LoopIterationTimer extends Timer {
 		SourceCorrespondence sc = (SourceCorrespondence) loopHeader.getAttr(Node.SC);
 		try {
 			// insert just before the loop header
-			insert(sc.sourceFile, sc.offset, "\nstaticinvoke <tca.instrumentation.TCA_Timer: void probe(java.lang.String)>(\"" + measurementKeyName + "\");\n");
+			insert(sc.sourceFile, sc.offset, "\nstaticinvoke <tca.instrumentation.TCA_Timer: void probe(int)>(" + measurementKeyId + ");\n");
+			
+			// insert just before the targets of the loop's exit edges and the returns inside the loop
+			for(GraphElement exit : LoopStructure.getExits(LoopStructure.getMembers(loopHeader))){
+				SourceCorrespondence exitSC = (SourceCorrespondence) exit.getAttr(Node.SC);
+				insert(exitSC.sourceFile, exitSC.offset, "\nstaticinvoke <tca.instrumentation.TCA_Timer: void exit(int)>(" + measurementKeyId + ");\n");
+			}
 		} catch (IOException | CoreException e) {
 			return false;
 		}
@@ -69,5 +79,10 @@ public class LoopIterationTimer extends Timer {
 	public String getMeasurementKeyName() {
 		return measurementKeyName;
 	}
+	
+	@Override
+	public int getMeasurementKeyId() {
+		return measurementKeyId;
+	}
 
 }
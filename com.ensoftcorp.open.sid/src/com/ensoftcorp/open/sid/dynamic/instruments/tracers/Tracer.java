@@ -0,0 +1,14 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.tracers;
+
+import org.eclipse.core.resources.IProject;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.sid.dynamic.instruments.Instrument;
+
+public abstract class Tracer extends Instrument {
+	
+	public Tracer(IProject project, GraphElement graphElement) {
+		super(project, graphElement);
+	}
+	
+}
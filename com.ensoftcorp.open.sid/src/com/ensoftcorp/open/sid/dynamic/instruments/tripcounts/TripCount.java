@@ -0,0 +1,14 @@
+package com.ensoftcorp.open.sid.dynamic.instruments.tripcounts;
+
+import org.eclipse.core.resources.IProject;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.sid.dynamic.instruments.Instrument;
+
+public abstract class TripCount extends Instrument {
+	
+	public TripCount(IProject project, GraphElement graphElement) {
+		super(project, graphElement);
+	}
+	
+}
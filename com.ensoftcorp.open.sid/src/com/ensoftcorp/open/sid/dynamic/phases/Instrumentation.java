@@ -3,6 +3,7 @@ package com.ensoftcorp.open.sid.dynamic.phases;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -16,17 +17,33 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
 import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.analysis.CommonQueries;
 import com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.CFGNode;
 import com.ensoftcorp.open.sid.dynamic.instruments.Instrument;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
+import com.ensoftcorp.open.sid.dynamic.instruments.allocations.LoopIterationAllocation;
+import com.ensoftcorp.open.sid.dynamic.instruments.contexts.LoopContext;
+import com.ensoftcorp.open.sid.dynamic.instruments.contexts.MethodContext;
 import com.ensoftcorp.open.sid.dynamic.instruments.counters.LoopIterationCounter;
+import com.ensoftcorp.open.sid.dynamic.instruments.invocations.MethodInvocation;
 import com.ensoftcorp.open.sid.dynamic.instruments.timers.LoopIterationTimer;
+import com.ensoftcorp.open.sid.dynamic.instruments.tracers.LoopIterationTracer;
+import com.ensoftcorp.open.sid.dynamic.instruments.tripcounts.LoopTripCount;
 import com.ensoftcorp.open.sid.log.Log;
 
 public class Instrumentation {
+	
+	/**
+	 * The families of probes that can be inserted at each loop header
+	 */
+	public static enum LoopProbe {
+		COUNTER, TIMER, TRACER, ALLOCATION, TRIP_COUNT, CONTEXT
+	}
 
 	/**
 	 * Instruments the project with the given instrumentation
@@ -77,33 +94,99 @@ public class Instrumentation {
 	
 	/**
 	 * Returns a mapping of methods to the Instruments added to the loop headers (in a given context) contained in the method
+	 * 
+	 * Each loop header is assigned a dense integer measurement key ID, which is recorded in the 
+	 * probe manifest written next to the project's Jimple
 	 * @param project
 	 * @return
 	 */
 	public static HashMap<GraphElement,LinkedList<Instrument>> instrumentContainedLoopHeaders(IProject project, Q context){
+		return instrumentContainedLoopHeaders(project, context, EnumSet.allOf(LoopProbe.class));
+	}
+	
+	/**
+	 * Returns a mapping of methods to the Instruments added to the loop headers (in a given context) contained in the method
+	 * 
+	 * Only the requested probe families are inserted, every probe that is inserted runs on each 
+	 * loop iteration (even while it is disabled at runtime) and adds to the measured times
+	 * @param project
+	 * @param context
+	 * @param probes The probe families to insert
+	 * @return
+	 */
+	public static HashMap<GraphElement,LinkedList<Instrument>> instrumentContainedLoopHeaders(IProject project, Q context, EnumSet<LoopProbe> probes){
 		HashMap<GraphElement,LinkedList<Instrument>> result = new HashMap<GraphElement,LinkedList<Instrument>>();
 		try {
-			Log.info("Instrumenting all loop headers for " + project.getName() + " for the given context...");
+			Log.info("Instrumenting all loop headers for " + project.getName() + " for the given context with " + probes + " probes...");
 			Q allLoopHeaders = context.contained().nodesTaggedWithAny(CFGNode.LOOP_HEADER);
 			Q exceptionalLoopHeaders = allLoopHeaders.contained().nodesTaggedWithAny(XCSG.CaughtValue).containers().nodesTaggedWithAny(CFGNode.LOOP_HEADER);;
 			Q safeLoopHeadersToInstrument = allLoopHeaders.difference(exceptionalLoopHeaders);
+			ProbeManifest manifest = ProbeManifest.load(getJimpleDirectory(project.getLocation().toFile().getCanonicalFile()));
 			for(Node loopHeader : safeLoopHeadersToInstrument.eval().nodes()){
-				Instrument counterInstrument = new LoopIterationCounter(project, loopHeader);
-				counterInstrument.performInstrumentation();
-				Instrument timerInstrument = new LoopIterationTimer(project, loopHeader);
-				timerInstrument.performInstrumentation();
+				LinkedList<Instrument> loopInstruments = new LinkedList<Instrument>();
+				if(probes.contains(LoopProbe.COUNTER)){
+					loopInstruments.add(new LoopIterationCounter(project, loopHeader, manifest));
+				}
+				if(probes.contains(LoopProbe.TIMER)){
+					loopInstruments.add(new LoopIterationTimer(project, loopHeader, manifest));
+				}
+				if(probes.contains(LoopProbe.TRACER)){
+					// trace events are only recorded while a trace is started at runtime
+					loopInstruments.add(new LoopIterationTracer(project, loopHeader, manifest));
+				}
+				if(probes.contains(LoopProbe.ALLOCATION)){
+					loopInstruments.add(new LoopIterationAllocation(project, loopHeader, manifest));
+				}
+				if(probes.contains(LoopProbe.TRIP_COUNT)){
+					// trip counts also probe the loop's entry and exits
+					loopInstruments.add(new LoopTripCount(project, loopHeader, manifest));
+				}
+				if(probes.contains(LoopProbe.CONTEXT)){
+					// calling context probes are only recorded while the context sensitive mode is enabled at runtime
+					loopInstruments.add(new LoopContext(project, loopHeader, manifest));
+				}
+				for(Instrument instrument : loopInstruments){
+					instrument.performInstrumentation();
+				}
 				GraphElement method = CommonQueries.getContainingFunction(loopHeader);
 				if(result.containsKey(method)){
-					LinkedList<Instrument> instruments = result.get(method);
-					instruments.add(counterInstrument);
-					instruments.add(timerInstrument);
+					result.get(method).addAll(loopInstruments);
 				} else {
-					LinkedList<Instrument> instruments = new LinkedList<Instrument>();
-					instruments.add(counterInstrument);
-					instruments.add(timerInstrument);
-					result.put(method, instruments);
+					result.put(method, loopInstruments);
+				}
+			}
+			// scope the loop probes to the invocations of the methods containing the instrumented loops,
+			// inserted after the loop probes so the loops exiting at a return are closed first
+			if(probes.contains(LoopProbe.TIMER) || probes.contains(LoopProbe.ALLOCATION) || probes.contains(LoopProbe.TRIP_COUNT)){
+				for(GraphElement method : result.keySet()){
+					Instrument invocationInstrument = new MethodInvocation(project, method, manifest);
+					invocationInstrument.performInstrumentation();
+					result.get(method).add(invocationInstrument);
+				}
+			}
+			if(probes.contains(LoopProbe.CONTEXT)){
+				// push the methods containing the instrumented loops and the methods in the context that can 
+				// call them onto the calling context shadow stack, so loop free callers are not collapsed
+				AtlasSet<GraphElement> loopMethods = new AtlasHashSet<GraphElement>();
+				for(GraphElement method : result.keySet()){
+					loopMethods.add(method);
+				}
+				Q callEdges = context.edgesTaggedWithAny(XCSG.Call);
+				Q contextMethods = callEdges.reverse(Common.toQ(loopMethods)).nodesTaggedWithAny(XCSG.Method);
+				for(GraphElement method : contextMethods.eval().nodes()){
+					Instrument contextInstrument = new MethodContext(project, method, manifest);
+					if(result.containsKey(method)){
+						contextInstrument.performInstrumentation();
+						result.get(method).add(contextInstrument);
+					} else if(contextInstrument.performInstrumentation()){
+						// callers without a body (ex: library methods) are skipped
+						LinkedList<Instrument> instruments = new LinkedList<Instrument>();
+						instruments.add(contextInstrument);
+						result.put(method, instruments);
+					}
 				}
 			}
+			manifest.save();
 		} catch (Exception e){
 			Log.error(e.getMessage(), e);
 		}
@@ -42,6 +42,7 @@ import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.utilities.DisplayUtils;
 import com.ensoftcorp.open.java.commons.analyzers.JavaProgramEntryPoints;
 import com.ensoftcorp.open.jimple.commons.transform.Compilation;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
 import com.ensoftcorp.open.sid.dynamic.phases.Cloning;
 import com.ensoftcorp.open.sid.dynamic.phases.Instrumentation;
 import com.ensoftcorp.open.sid.dynamic.phases.Setup;
@@ -85,17 +86,19 @@ public class CreateDriverProjectHandler extends AbstractHandler {
 				}
 				
 				File instrumentedBytecode = File.createTempFile(project.getName(), ".jar");
+				File probeManifest;
 				try {
 					File projectDirectory = project.getLocation().toFile().getCanonicalFile();
 					File jimpleDirectory = Instrumentation.getJimpleDirectory(projectDirectory);
 					IFolder jimpleFolder = project.getFolder(projectDirectory.toURI().relativize(new File(jimpleDirectory.getCanonicalPath()).toURI()).getPath());
+					probeManifest = new File(jimpleDirectory.getCanonicalPath() + File.separatorChar + ProbeManifest.MANIFEST_FILE_NAME);
 					Compilation.compile(project, jimpleFolder.getLocation().toFile(), instrumentedBytecode, false, new LinkedList<File>(), true, new Transform[]{});
 				} catch (Throwable t){
 					DisplayUtils.showError(t, "Error compiling Jimple in \"" + project.getName() + "\".");
 					return null;
 				}
 				
-				createDriver(driverProjectName, dynamicSupportProject, instrumentedBytecode);
+				createDriver(driverProjectName, dynamicSupportProject, instrumentedBytecode, probeManifest);
 			} else {
 				DisplayUtils.showMessage("Invalid selection type: " + last.getClass().getName() + "\nPlease select the root Jimple directory (ex: sootOutput).");
 			}
@@ -106,7 +109,7 @@ public class CreateDriverProjectHandler extends AbstractHandler {
 		return null;
 	}
 
-	private void createDriver(String driverProjectName, IProject dynamicSupportProject, File instrumentedBytecode) throws Exception {
+	private void createDriver(String driverProjectName, IProject dynamicSupportProject, File instrumentedBytecode, File probeManifest) throws Exception {
 		IProject driverProject = null;
 		try {
 			// create an empty project
@@ -166,6 +169,13 @@ public class CreateDriverProjectHandler extends AbstractHandler {
 				}
 			}
 
+			// add the probe manifest to the project root (the default working directory)
+			// so measurements can be reported by measurement key name
+			if(probeManifest.exists()){
+				File copiedProbeManifest = new File(driverProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + ProbeManifest.MANIFEST_FILE_NAME);
+				Files.copy(probeManifest.toPath(), copiedProbeManifest.toPath());
+			}
+
 			// add libs to project class path
 			jDriverProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), null);
 			
@@ -0,0 +1,94 @@
+package com.ensoftcorp.open.sid.handlers;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+/**
+ * Instruments the selected method like {@link CreateMethodDriverProjectHandler}, but
+ * generates a JMH benchmark of the method instead of the driver templates
+ *
+ * The generated project contains the benchmark (with the workload sizes as a JMH
+ * parameter and a state class that generates the workload of each size), and a
+ * Maven build that packages it with the instrumented bytecode into an executable
+ * benchmarks jar, so the JMH latency and throughput results can be compared with
+ * the TCA counters recorded during the benchmark.
+ */
+public class CreateMethodBenchmarkProjectHandler extends CreateMethodDriverProjectHandler {
+	
+	private static final String BENCHMARK_SOURCE_DIRECTORY = "benchmark-src";
+	private static final String BENCHMARK_PACKAGE = "benchmarks";
+	private static final String BENCHMARK_CLASS_FILE = "MethodBenchmark.java";
+	private static final String BENCHMARK_BUILD_FILE = "pom.xml";
+	
+	private static final String TCA_TARGET_METHOD_INJECTION_SITE = "TCA_TARGET_METHOD_CALLSITE";
+	private static final String TCA_ARTIFACT_ID_INJECTION_SITE = "TCA_BENCHMARK_ARTIFACT_ID";
+	
+	public CreateMethodBenchmarkProjectHandler() {
+	}
+	
+	@Override
+	protected String getProjectNameSuffix(){
+		return "benchmark";
+	}
+	
+	@Override
+	protected void addDriverSources(IJavaProject jDriverProject, IFolder sourceFolder, IProject dynamicSupportProject, GraphElement method) throws Exception {
+		File benchmarkSrcDirectory = new File(dynamicSupportProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + BENCHMARK_SOURCE_DIRECTORY);
+		
+		// add the benchmark with the callsite to the selected method
+		File benchmarkFile = new File(benchmarkSrcDirectory.getAbsolutePath() + File.separatorChar + BENCHMARK_PACKAGE + File.separatorChar + BENCHMARK_CLASS_FILE);
+		String benchmark = readFile(benchmarkFile);
+		benchmark = benchmark.replace(TCA_TARGET_METHOD_INJECTION_SITE, "// " + createBenchmarkCallsite(method));
+		IPackageFragment pkg = jDriverProject.getPackageFragmentRoot(sourceFolder).createPackageFragment(BENCHMARK_PACKAGE, false, null);
+		pkg.createCompilationUnit(BENCHMARK_CLASS_FILE, benchmark, false, null);
+		
+		// add the maven build of the benchmarks jar to the project root
+		IProject benchmarkProject = jDriverProject.getProject();
+		String build = readFile(new File(benchmarkSrcDirectory.getAbsolutePath() + File.separatorChar + BENCHMARK_BUILD_FILE));
+		build = build.replace(TCA_ARTIFACT_ID_INJECTION_SITE, benchmarkProject.getName());
+		File buildFile = new File(benchmarkProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + BENCHMARK_BUILD_FILE);
+		Files.write(buildFile.toPath(), build.getBytes(StandardCharsets.UTF_8));
+		benchmarkProject.refreshLocal(IResource.DEPTH_ONE, new NullProgressMonitor());
+	}
+	
+	/**
+	 * Creates a callsite to the given method that consumes its result in the
+	 * benchmark's blackhole (methods returning void are called directly)
+	 * 
+	 * @param method
+	 * @return
+	 */
+	public static String createBenchmarkCallsite(GraphElement method) {
+		String callsite = createMethodDriverCallsite(method);
+		GraphElement returnType = Common.universe().edgesTaggedWithAny(XCSG.Returns).successors(Common.toQ(method)).eval().nodes().getFirst();
+		if(returnType == null || returnType.getAttr(XCSG.name).toString().equals("void")){
+			return callsite;
+		}
+		// drop the semicolon of the call
+		return "blackhole.consume(" + callsite.substring(0, callsite.length() - 1) + ");";
+	}
+	
+	private static String readFile(File file) throws Exception {
+		Scanner scanner = new Scanner(file);
+		try {
+			scanner.useDelimiter("\\Z");
+			return scanner.next();
+		} finally {
+			scanner.close();
+		}
+	}
+	
+}
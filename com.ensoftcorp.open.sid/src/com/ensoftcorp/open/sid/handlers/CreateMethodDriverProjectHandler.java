@@ -50,6 +50,7 @@ import com.ensoftcorp.open.commons.utilities.DisplayUtils;
 import com.ensoftcorp.open.java.commons.analyzers.JavaProgramEntryPoints;
 import com.ensoftcorp.open.jimple.commons.transform.Compilation;
 import com.ensoftcorp.open.sid.dynamic.instruments.Instrument;
+import com.ensoftcorp.open.sid.dynamic.instruments.ProbeManifest;
 import com.ensoftcorp.open.sid.dynamic.phases.Cloning;
 import com.ensoftcorp.open.sid.dynamic.phases.Instrumentation;
 import com.ensoftcorp.open.sid.dynamic.phases.Setup;
@@ -120,7 +121,7 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 		}
 		
 		try {
-			String driverProjectName = Cloning.getUniqueProjectName(project.getName(), "driver");
+			String driverProjectName = Cloning.getUniqueProjectName(project.getName(), getProjectNameSuffix());
 			
 			IProject dynamicSupportProject = Setup.getOrCreateDynamicSupportProject();
 			if(!dynamicSupportProject.exists()){
@@ -129,17 +130,19 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 			}
 			
 			File instrumentedBytecode = File.createTempFile(cloneProject.getName(), ".jar");
+			File probeManifest;
 			try {
 				File projectDirectory = cloneProject.getLocation().toFile().getCanonicalFile();
 				File jimpleDirectory = Instrumentation.getJimpleDirectory(projectDirectory);
 				IFolder jimpleFolder = cloneProject.getFolder(projectDirectory.toURI().relativize(new File(jimpleDirectory.getCanonicalPath()).toURI()).getPath());
+				probeManifest = new File(jimpleDirectory.getCanonicalPath() + File.separatorChar + ProbeManifest.MANIFEST_FILE_NAME);
 				Compilation.compile(cloneProject, jimpleFolder.getLocation().toFile(), instrumentedBytecode, false, new LinkedList<File>(), true, new Transform[]{});	
 			} catch (Throwable t){
 				DisplayUtils.showError(t, "Error compiling Jimple in \"" + cloneProject.getName() + "\".");
 				return null;
 			}
 			
-			createDriver(driverProjectName, dynamicSupportProject, instrumentedBytecode, method);
+			createDriver(driverProjectName, dynamicSupportProject, instrumentedBytecode, probeManifest, method);
 		} catch (Exception e){
 			DisplayUtils.showError(e, "Could not create driver project.");
 		}
@@ -147,7 +150,7 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 		return null;
 	}
 
-	private void createDriver(String driverProjectName, IProject dynamicSupportProject, File instrumentedBytecode, GraphElement method) throws Exception {
+	private void createDriver(String driverProjectName, IProject dynamicSupportProject, File instrumentedBytecode, File probeManifest, GraphElement method) throws Exception {
 		IProject driverProject = null;
 		try {
 			// create an empty project
@@ -207,6 +210,13 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 				}
 			}
 
+			// add the probe manifest to the project root (the default working directory)
+			// so measurements can be reported by measurement key name
+			if(probeManifest.exists()){
+				File copiedProbeManifest = new File(driverProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + ProbeManifest.MANIFEST_FILE_NAME);
+				Files.copy(probeManifest.toPath(), copiedProbeManifest.toPath());
+			}
+
 			// add libs to project class path
 			jDriverProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), null);
 			
@@ -223,8 +233,7 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 			jDriverProject.setRawClasspath(newEntries, null);
 			
 			// add the support classes and driver templates
-			File dynamicSupportSrcDirectory = new File(dynamicSupportProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + "driver-src");
-			addSupportClasses(jDriverProject, sourceFolder, dynamicSupportSrcDirectory, method);
+			addDriverSources(jDriverProject, sourceFolder, dynamicSupportProject, method);
 		} catch (Exception e){
 			if(driverProject != null){
 				Setup.deleteProject(driverProject);
@@ -233,6 +242,28 @@ public class CreateMethodDriverProjectHandler extends AbstractHandler {
 		}
 	}
 	
+	/**
+	 * Returns the suffix of the name of the generated project
+	 * @return
+	 */
+	protected String getProjectNameSuffix(){
+		return "driver";
+	}
+	
+	/**
+	 * Adds the sources of the generated project to its source folder, the 
+	 * instrumented bytecode is already on the classpath in lib/bytecode.jar
+	 * @param jDriverProject
+	 * @param sourceFolder
+	 * @param dynamicSupportProject
+	 * @param method The method selected to drive
+	 * @throws Exception
+	 */
+	protected void addDriverSources(IJavaProject jDriverProject, IFolder sourceFolder, IProject dynamicSupportProject, GraphElement method) throws Exception {
+		File dynamicSupportSrcDirectory = new File(dynamicSupportProject.getLocation().toFile().getAbsolutePath() + File.separatorChar + "driver-src");
+		addSupportClasses(jDriverProject, sourceFolder, dynamicSupportSrcDirectory, method);
+	}
+	
 	public static void addSupportClasses(IJavaProject jDriverProject, IFolder sourceFolder, File directory, GraphElement method) throws FileNotFoundException, JavaModelException {
 		for(File file : directory.listFiles()){
 			if(file.isDirectory()){